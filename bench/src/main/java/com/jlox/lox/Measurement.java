@@ -0,0 +1,134 @@
+package com.jlox.lox;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/*
+ * The measured iterations of one stage on one input: wall time and allocated bytes of every iteration
+ * and what was needed to reach a steady state before them.
+ */
+class Measurement {
+
+  final String stage;
+  final String input;
+  final long sourceBytes;
+  final int warmupIterations;
+  final long[] nanos;
+  final long[] allocatedBytes; // -1 per entry when the JVM can't measure allocations
+  final String skipped; // why the stage was not measured, null when it was
+
+  Measurement(String stage, String input, long sourceBytes, int warmupIterations, long[] nanos, long[] allocatedBytes) {
+    this.stage = stage;
+    this.input = input;
+    this.sourceBytes = sourceBytes;
+    this.warmupIterations = warmupIterations;
+    this.nanos = nanos;
+    this.allocatedBytes = allocatedBytes;
+    this.skipped = null;
+  }
+
+  private Measurement(String stage, String input, long sourceBytes, String skipped) {
+    this.stage = stage;
+    this.input = input;
+    this.sourceBytes = sourceBytes;
+    this.warmupIterations = 0;
+    this.nanos = new long[0];
+    this.allocatedBytes = new long[0];
+    this.skipped = skipped;
+  }
+
+  static Measurement skipped(String stage, String input, long sourceBytes, String reason) {
+    return new Measurement(stage, input, sourceBytes, reason);
+  }
+
+  long totalNanos() {
+    long total = 0;
+    for (long n : nanos) {
+      total += n;
+    }
+    return total;
+  }
+
+  double meanNanos() {
+    return (double) totalNanos() / nanos.length;
+  }
+
+  /*
+   * Nearest-rank percentile of the iteration times, 'p' in [0, 100]
+   */
+  long percentileNanos(double p) {
+    long[] sorted = nanos.clone();
+    Arrays.sort(sorted);
+    int rank = (int) Math.ceil(p / 100 * sorted.length);
+    return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+  }
+
+  double opsPerSecond() {
+    return nanos.length / (totalNanos() / 1e9);
+  }
+
+  double sourceMegabytesPerSecond() {
+    return opsPerSecond() * sourceBytes / 1e6;
+  }
+
+  double allocatedBytesPerOp() {
+    long total = 0;
+    for (long bytes : allocatedBytes) {
+      if (bytes < 0)
+        return -1;
+      total += bytes;
+    }
+    return (double) total / allocatedBytes.length;
+  }
+
+  double allocationMegabytesPerSecond() {
+    double perOp = allocatedBytesPerOp();
+    return perOp < 0 ? -1 : perOp * opsPerSecond() / 1e6;
+  }
+
+  String toJson() {
+    StringBuilder json = new StringBuilder();
+    json.append(String.format("{\"stage\": %s, \"input\": %s, \"sourceBytes\": %d", quote(stage), quote(input),
+        sourceBytes));
+    if (skipped != null) {
+      return json.append(String.format(", \"skipped\": %s}", quote(skipped))).toString();
+    }
+
+    json.append(String.format(Locale.ROOT, ", \"warmupIterations\": %d, \"iterations\": %d", warmupIterations,
+        nanos.length));
+    json.append(String.format(Locale.ROOT,
+        ", \"nanos\": {\"min\": %d, \"mean\": %.1f, \"p50\": %d, \"p90\": %d, \"p99\": %d, \"max\": %d}",
+        percentileNanos(0), meanNanos(), percentileNanos(50), percentileNanos(90), percentileNanos(99),
+        percentileNanos(100)));
+    json.append(String.format(Locale.ROOT, ", \"opsPerSecond\": %.3f, \"sourceMBPerSecond\": %.3f", opsPerSecond(),
+        sourceMegabytesPerSecond()));
+    json.append(String.format(Locale.ROOT, ", \"allocatedBytesPerOp\": %.1f, \"allocationMBPerSecond\": %.3f}",
+        allocatedBytesPerOp(), allocationMegabytesPerSecond()));
+    return json.toString();
+  }
+
+  /*
+   * One line for people reading along on the console
+   */
+  String summary() {
+    if (skipped != null)
+      return String.format("%-12s %-28s skipped: %s", stage, input, skipped);
+
+    return String.format(Locale.ROOT, "%-12s %-28s p50 %10.3f ms  p99 %10.3f ms  %10.1f ops/s  %10.1f KB/op", stage,
+        input, percentileNanos(50) / 1e6, percentileNanos(99) / 1e6, opsPerSecond(), allocatedBytesPerOp() / 1e3);
+  }
+
+  private static String quote(String value) {
+    StringBuilder quoted = new StringBuilder("\"");
+    for (char c : value.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        quoted.append('\\').append(c);
+      } else if (c < 0x20) {
+        quoted.append(String.format("\\u%04x", (int) c));
+      } else {
+        quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+}
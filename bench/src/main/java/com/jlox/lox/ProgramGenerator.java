@@ -0,0 +1,151 @@
+package com.jlox.lox;
+
+import java.util.Random;
+
+/*
+ * Generates synthetic Lox programs of a given size for the benchmarks. The same seed always gives the same program.
+ *
+ * A program is a sequence of units, each unit is one of
+ * - a function with arithmetic and a loop that gets called a few times
+ * - a class with an initializer and methods that gets instantiated
+ * - nested blocks with conditionals and string concatenation
+ * - a closure counter
+ *
+ * Every unit runs in a few microseconds so the interpret stage mostly measures the interpreter, not the loops.
+ */
+class ProgramGenerator {
+
+  private final Random random;
+  private final StringBuilder source = new StringBuilder();
+  private int indent = 0;
+
+  ProgramGenerator(long seed) {
+    this.random = new Random(seed);
+  }
+
+  String generate(int units) {
+    source.setLength(0);
+    for (int i = 0; i < units; i++) {
+      switch (random.nextInt(4)) {
+        case 0:
+          function(i);
+          break;
+        case 1:
+          klass(i);
+          break;
+        case 2:
+          blocks(i);
+          break;
+        default:
+          closure(i);
+          break;
+      }
+    }
+    return source.toString();
+  }
+
+  private void function(int unit) {
+    String name = "compute" + unit;
+    line("fun %s(n) {", name);
+    indent++;
+    line("var sum = 0;");
+    line("for (var i = 0; i < n; i = i + 1) {");
+    indent++;
+    line("sum = sum + %s;", arithmetic("i", 3));
+    indent--;
+    line("}");
+    line("return sum;");
+    indent--;
+    line("}");
+    line("var result%d = %s(%d) + %s(%d);", unit, name, 1 + random.nextInt(10), name, 1 + random.nextInt(10));
+    line("print result%d;", unit);
+  }
+
+  private void klass(int unit) {
+    String name = "Point" + unit;
+    line("class %s {", name);
+    indent++;
+    line("init(x, y) {");
+    indent++;
+    line("this.x = x;");
+    line("this.y = y;");
+    indent--;
+    line("}");
+    line("length() {");
+    indent++;
+    line("return this.x * this.x + this.y * this.y;");
+    indent--;
+    line("}");
+    line("move(dx, dy) {");
+    indent++;
+    line("return %s(this.x + dx, this.y + dy);", name);
+    indent--;
+    line("}");
+    indent--;
+    line("}");
+    line("var point%d = %s(%d, %d).move(%d, %d);", unit, name, random.nextInt(100), random.nextInt(100),
+        random.nextInt(10), random.nextInt(10));
+    line("print point%d.length();", unit);
+  }
+
+  private void blocks(int unit) {
+    line("{");
+    indent++;
+    line("var text = \"unit%d\";", unit);
+    line("var value = %d;", random.nextInt(1000));
+    int conditionals = 1 + random.nextInt(3);
+    for (int i = 0; i < conditionals; i++) {
+      line("if (value > %d) {", random.nextInt(1000));
+      indent++;
+      line("text = text + \" big\";");
+      indent--;
+      line("} else {");
+      indent++;
+      line("text = text + \" small\";");
+      line("value = %s;", arithmetic("value", 2));
+      indent--;
+      line("}");
+    }
+    line("print text;");
+    indent--;
+    line("}");
+  }
+
+  private void closure(int unit) {
+    String name = "makeCounter" + unit;
+    line("fun %s() {", name);
+    indent++;
+    line("var count = 0;");
+    line("fun increment() {");
+    indent++;
+    line("count = count + %d;", 1 + random.nextInt(5));
+    line("return count;");
+    indent--;
+    line("}");
+    line("return increment;");
+    indent--;
+    line("}");
+    line("var counter%d = %s();", unit, name);
+    line("counter%d();", unit);
+    line("print counter%d();", unit);
+  }
+
+  /*
+   * A random arithmetic expression over 'variable' and number literals, never divides
+   */
+  private String arithmetic(String variable, int depth) {
+    if (depth == 0)
+      return random.nextBoolean() ? variable : Integer.toString(1 + random.nextInt(100));
+
+    String[] operators = { "+", "-", "*" };
+    return String.format("(%s %s %s)", arithmetic(variable, depth - 1), operators[random.nextInt(operators.length)],
+        arithmetic(variable, depth - 1));
+  }
+
+  private void line(String format, Object... args) {
+    for (int i = 0; i < indent; i++) {
+      source.append("  ");
+    }
+    source.append(String.format(format, args)).append('\n');
+  }
+}
@@ -0,0 +1,309 @@
+package com.jlox.lox;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Measures the stages of the pipeline one at a time: Scanner.scan, Parser.parseStatements, Resolver.resolve,
+ * Optimizer.optimize and Interpreter.interpret, scanning and parsing also through a packed TokenBuffer. Each stage
+ * gets the output of the previous one prepared up front, so only the stage itself is timed.
+ *
+ * Inputs are synthetic programs from the ProgramGenerator and real programs given as files or directories of .lox
+ * files. Without any files the examples of the jlox module are used when they can be found.
+ *
+ * Every stage is run until its iteration times settle (at least --warmup times), then --iterations times measured.
+ * Stages that take longer than --time seconds in total stop early. Results go to stdout as JSON (or to --out),
+ * a readable summary goes to stderr.
+ *
+ * Usage: java -cp jlox/target/classes:bench/target/classes com.jlox.lox.StageBenchmark
+ *            [--warmup=N] [--iterations=N] [--time=SECONDS] [--units=N,N,...] [--out=FILE] [file.lox|dir ...]
+ */
+public class StageBenchmark {
+
+  private static final String[] EXAMPLE_DIRECTORIES = { "jlox/src/main/java/com/jlox/examples",
+      "../jlox/src/main/java/com/jlox/examples", "src/main/java/com/jlox/examples" };
+  private static final int STEADY_WINDOW = 5; // iterations compared against the ones before them
+  private static final double STEADY_TOLERANCE = 0.05;
+
+  /*
+   * A program to run the stages on
+   */
+  private static class Input {
+    final String name;
+    final String source;
+    final Path directory; // where its imports are looked up
+
+    Input(String name, String source, Path directory) {
+      this.name = name;
+      this.source = source;
+      this.directory = directory;
+    }
+  }
+
+  /*
+   * One iteration of a stage, returns something derived from its result so the JIT can't drop the work
+   */
+  private interface Stage {
+    int run();
+  }
+
+  private int warmup = 10;
+  private int iterations = 30;
+  private long budgetNanos = 10_000_000_000L;
+  private int[] units = { 100, 1000 };
+  private String out = null;
+  private final List<String> paths = new ArrayList<>();
+
+  private final PrintStream console = System.out;
+  private final PrintStream discard = new PrintStream(new OutputStream() {
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  });
+  private final ModuleLoader modules = new ModuleLoader(); // imported files load once for all inputs
+  private final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  private int sink = 0;
+
+  public static void main(String[] args) throws IOException {
+    StageBenchmark benchmark = new StageBenchmark();
+    for (String arg : args) {
+      if (arg.startsWith("--warmup=")) {
+        benchmark.warmup = Integer.parseInt(arg.substring("--warmup=".length()));
+      } else if (arg.startsWith("--iterations=")) {
+        benchmark.iterations = Math.max(1, Integer.parseInt(arg.substring("--iterations=".length())));
+      } else if (arg.startsWith("--time=")) {
+        benchmark.budgetNanos = (long) (Double.parseDouble(arg.substring("--time=".length())) * 1e9);
+      } else if (arg.startsWith("--units=")) {
+        String[] sizes = arg.substring("--units=".length()).split(",");
+        benchmark.units = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+          benchmark.units[i] = Integer.parseInt(sizes[i].trim());
+        }
+      } else if (arg.startsWith("--out=")) {
+        benchmark.out = arg.substring("--out=".length());
+      } else if (arg.startsWith("--")) {
+        System.err.println(String.format("Unknown option '%s'", arg));
+        System.exit(64);
+      } else {
+        benchmark.paths.add(arg);
+      }
+    }
+
+    benchmark.run();
+  }
+
+  private void run() throws IOException {
+    List<Measurement> measurements = new ArrayList<>();
+    for (Input input : inputs()) {
+      measurements.addAll(benchmark(input));
+    }
+
+    StringBuilder json = new StringBuilder();
+    json.append(String.format("{\"java\": \"%s\", \"warmup\": %d, \"iterations\": %d, \"results\": [",
+        System.getProperty("java.version"), warmup, iterations));
+    for (int i = 0; i < measurements.size(); i++) {
+      json.append(i == 0 ? "\n  " : ",\n  ").append(measurements.get(i).toJson());
+    }
+    json.append("\n]}\n");
+
+    if (out == null) {
+      console.print(json);
+    } else {
+      Files.write(new File(out).toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  private List<Input> inputs() throws IOException {
+    List<Input> inputs = new ArrayList<>();
+    for (int size : units) {
+      inputs.add(new Input(String.format("generated-%d", size), new ProgramGenerator(size).generate(size),
+          Paths.get("")));
+    }
+
+    List<String> sources = new ArrayList<>(paths);
+    if (sources.isEmpty()) {
+      for (String directory : EXAMPLE_DIRECTORIES) {
+        if (new File(directory).isDirectory()) {
+          sources.add(directory);
+          break;
+        }
+      }
+    }
+
+    for (String path : sources) {
+      File file = new File(path);
+      File[] files = file.isDirectory() ? file.listFiles((dir, name) -> name.endsWith(".lox")) : new File[] { file };
+      Arrays.sort(files);
+      for (File f : files) {
+        inputs.add(new Input(f.getName(), new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8),
+            f.toPath().toAbsolutePath().getParent()));
+      }
+    }
+    return inputs;
+  }
+
+  /*
+   * Runs every stage once untimed to get the inputs of the next stage and to find programs with errors,
+   * the stages after an error are skipped
+   */
+  private List<Measurement> benchmark(Input input) {
+    List<Measurement> measurements = new ArrayList<>();
+    long size = input.source.getBytes(StandardCharsets.UTF_8).length;
+    resetErrors();
+
+    List<Token> tokens = new Scanner(input.source).scan();
+    if (Lox.hadError) {
+      measurements.add(Measurement.skipped("scan", input.name, size, "scan error"));
+      measurements.add(Measurement.skipped("parse", input.name, size, "scan error"));
+      measurements.add(Measurement.skipped("resolve", input.name, size, "scan error"));
+      measurements.add(Measurement.skipped("optimize", input.name, size, "scan error"));
+      measurements.add(Measurement.skipped("interpret", input.name, size, "scan error"));
+      return report(measurements);
+    }
+    measurements.add(measure("scan", input, size, () -> new Scanner(input.source).scan().size()));
+
+    List<Stmt> statements = new Parser(tokens).parseStatements();
+    if (Lox.hadError) {
+      measurements.add(Measurement.skipped("parse", input.name, size, "parse error"));
+      measurements.add(Measurement.skipped("resolve", input.name, size, "parse error"));
+      measurements.add(Measurement.skipped("optimize", input.name, size, "parse error"));
+      measurements.add(Measurement.skipped("interpret", input.name, size, "parse error"));
+      return report(measurements);
+    }
+    measurements.add(measure("parse", input, size, () -> new Parser(tokens).parseStatements().size()));
+
+    // the same two stages through a packed TokenBuffer
+    TokenBuffer packed = new Scanner(input.source).scanPacked();
+    measurements.add(measure("scan-packed", input, size, () -> new Scanner(input.source).scanPacked().size()));
+    measurements.add(measure("parse-packed", input, size, () -> new Parser(packed).parseStatements().size()));
+
+    // imports are linked untimed, like in Lox.compile the modules must be there before resolving
+    modules.link(statements, input.directory);
+    if (Lox.hadError) {
+      measurements.add(Measurement.skipped("resolve", input.name, size, "import error"));
+      measurements.add(Measurement.skipped("optimize", input.name, size, "import error"));
+      measurements.add(Measurement.skipped("interpret", input.name, size, "import error"));
+      return report(measurements);
+    }
+
+    Resolver resolver = new Resolver();
+    resolver.resolve(statements);
+    if (Lox.hadError) {
+      measurements.add(Measurement.skipped("resolve", input.name, size, "resolve error"));
+      measurements.add(Measurement.skipped("optimize", input.name, size, "resolve error"));
+      measurements.add(Measurement.skipped("interpret", input.name, size, "resolve error"));
+      return report(measurements);
+    }
+    measurements.add(measure("resolve", input, size, () -> {
+      new Resolver().resolve(statements);
+      return statements.size();
+    }));
+
+    // the optimizer builds a new tree and only reads what the resolver found out, the same resolver serves every run
+    Optimizer optimizer = new Optimizer(resolver);
+    List<Stmt> optimized = optimizer.optimize(statements);
+    measurements.add(measure("optimize", input, size, () -> optimizer.optimize(statements).size()));
+
+    // one interpreter for all iterations, the compiled tiers keep references to its globals
+    new NumberInference().infer(optimized);
+    Interpreter interpreter = new Interpreter();
+    measurements.add(measure("interpret", input, size, () -> {
+      interpreter.interpret(optimized);
+      if (Lox.hadRuntimeError)
+        throw new IllegalStateException("runtime error");
+      return 0;
+    }));
+    return report(measurements);
+  }
+
+  private List<Measurement> report(List<Measurement> measurements) {
+    for (Measurement measurement : measurements) {
+      System.err.println(measurement.summary());
+    }
+    return measurements;
+  }
+
+  private Measurement measure(String name, Input input, long size, Stage stage) {
+    System.setOut(discard); // programs print, the console would dominate the interpret stage
+    try {
+      long started = System.nanoTime();
+      List<Long> warmupNanos = new ArrayList<>();
+      while (!isSteady(warmupNanos)) {
+        long begin = System.nanoTime();
+        sink += stage.run();
+        warmupNanos.add(System.nanoTime() - begin);
+        if (System.nanoTime() - started > budgetNanos / 2)
+          break;
+      }
+      if (System.nanoTime() - started > budgetNanos)
+        return Measurement.skipped(name, input.name, size, "warmup took longer than the time budget");
+
+      long[] nanos = new long[iterations];
+      long[] allocated = new long[iterations];
+      int count = 0;
+      started = System.nanoTime();
+      while (count < iterations && (count == 0 || System.nanoTime() - started < budgetNanos)) {
+        long bytesBefore = allocatedBytes();
+        long begin = System.nanoTime();
+        sink += stage.run();
+        nanos[count] = System.nanoTime() - begin;
+        long bytesAfter = allocatedBytes();
+        allocated[count] = bytesBefore < 0 ? -1 : bytesAfter - bytesBefore;
+        count++;
+      }
+      return new Measurement(name, input.name, size, warmupNanos.size(), Arrays.copyOf(nanos, count),
+          Arrays.copyOf(allocated, count));
+    } catch (IllegalStateException e) {
+      return Measurement.skipped(name, input.name, size, e.getMessage());
+    } finally {
+      System.setOut(console);
+      resetErrors();
+    }
+  }
+
+  /*
+   * Steady once the mean of the last window is within the tolerance of the window before it
+   */
+  private boolean isSteady(List<Long> warmupNanos) {
+    int n = warmupNanos.size();
+    if (n < Math.max(warmup, 2 * STEADY_WINDOW))
+      return false;
+
+    double last = 0;
+    double previous = 0;
+    for (int i = 0; i < STEADY_WINDOW; i++) {
+      last += warmupNanos.get(n - 1 - i);
+      previous += warmupNanos.get(n - 1 - STEADY_WINDOW - i);
+    }
+    return Math.abs(last - previous) <= STEADY_TOLERANCE * previous || n >= 10 * Math.max(warmup, STEADY_WINDOW);
+  }
+
+  /*
+   * Bytes allocated by this thread so far, -1 when the JVM doesn't tell
+   */
+  private long allocatedBytes() {
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return -1;
+  }
+
+  private static void resetErrors() {
+    Lox.hadError = false;
+    Lox.hadRuntimeError = false;
+  }
+}
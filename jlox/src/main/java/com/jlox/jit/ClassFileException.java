@@ -0,0 +1,12 @@
+package com.jlox.jit;
+
+/*
+ * Thrown when code does not fit into the limits of a class file, e.g. a jump that is too far
+ */
+public class ClassFileException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  public ClassFileException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,209 @@
+package com.jlox.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Writes a JVM class file with nothing but the JDK. Only what the JIT needs is supported: a constant pool,
+ * fields without attributes and methods with a Code attribute and line numbers.
+ *
+ * Classes are written as version 49 (Java 5) so no StackMapTable frames have to be computed,
+ * the JVM verifies them by type inference instead.
+ */
+public class ClassFileWriter {
+  public static final int ACC_PUBLIC = 0x0001;
+  public static final int ACC_PRIVATE = 0x0002;
+  public static final int ACC_STATIC = 0x0008;
+  public static final int ACC_FINAL = 0x0010;
+  public static final int ACC_SUPER = 0x0020;
+
+  private static final int VERSION = 49;
+
+  private static final int CONSTANT_UTF8 = 1;
+  private static final int CONSTANT_INTEGER = 3;
+  private static final int CONSTANT_DOUBLE = 6;
+  private static final int CONSTANT_CLASS = 7;
+  private static final int CONSTANT_STRING = 8;
+  private static final int CONSTANT_FIELDREF = 9;
+  private static final int CONSTANT_METHODREF = 10;
+  private static final int CONSTANT_INTERFACE_METHODREF = 11;
+  private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+  private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+  private final DataOutputStream pool = new DataOutputStream(poolBytes);
+  private final Map<String, Integer> poolIndex = new HashMap<>(); // deduplicates entries by their content
+  private int poolCount = 1; // entry 0 is unused
+
+  private final int thisClass;
+  private final int superClass;
+  private final List<Integer> interfaces = new ArrayList<>();
+  private final List<byte[]> fields = new ArrayList<>();
+  private final List<byte[]> methods = new ArrayList<>();
+
+  public ClassFileWriter(String name, String superName, String... interfaceNames) {
+    thisClass = classRef(name);
+    superClass = classRef(superName);
+    for (String interfaceName : interfaceNames) {
+      interfaces.add(classRef(interfaceName));
+    }
+  }
+
+  public int utf8(String value) {
+    Integer index = poolIndex.get("U" + value);
+    if (index != null)
+      return index;
+
+    try {
+      pool.writeByte(CONSTANT_UTF8);
+      pool.writeUTF(value); // the class file format uses the same modified UTF-8
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return register("U" + value, 1);
+  }
+
+  public int classRef(String internalName) {
+    return entry("C" + internalName, CONSTANT_CLASS, utf8(internalName));
+  }
+
+  public int string(String value) {
+    return entry("S" + value, CONSTANT_STRING, utf8(value));
+  }
+
+  public int integer(int value) {
+    Integer index = poolIndex.get("I" + value);
+    if (index != null)
+      return index;
+
+    try {
+      pool.writeByte(CONSTANT_INTEGER);
+      pool.writeInt(value);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return register("I" + value, 1);
+  }
+
+  public int doubleConstant(double value) {
+    String key = "D" + Double.doubleToRawLongBits(value);
+    Integer index = poolIndex.get(key);
+    if (index != null)
+      return index;
+
+    try {
+      pool.writeByte(CONSTANT_DOUBLE);
+      pool.writeDouble(value);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return register(key, 2); // doubles take up two entries
+  }
+
+  public int fieldRef(String owner, String name, String descriptor) {
+    return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+  }
+
+  public int methodRef(String owner, String name, String descriptor) {
+    return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+  }
+
+  public int interfaceMethodRef(String owner, String name, String descriptor) {
+    return memberRef(CONSTANT_INTERFACE_METHODREF, owner, name, descriptor);
+  }
+
+  private int memberRef(int tag, String owner, String name, String descriptor) {
+    int nameAndType = entry("N" + name + ":" + descriptor, CONSTANT_NAME_AND_TYPE, utf8(name), utf8(descriptor));
+    return entry(tag + owner + "." + name + ":" + descriptor, tag, classRef(owner), nameAndType);
+  }
+
+  private int entry(String key, int tag, int... references) {
+    Integer index = poolIndex.get(key);
+    if (index != null)
+      return index;
+
+    try {
+      pool.writeByte(tag);
+      for (int reference : references) {
+        pool.writeShort(reference);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return register(key, 1);
+  }
+
+  private int register(String key, int size) {
+    int index = poolCount;
+    poolIndex.put(key, index);
+    poolCount += size;
+    if (poolCount > 0xFFFF) {
+      throw new ClassFileException("Too many constants in class file");
+    }
+    return index;
+  }
+
+  public void addField(int access, String name, String descriptor) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeShort(access);
+      out.writeShort(utf8(name));
+      out.writeShort(utf8(descriptor));
+      out.writeShort(0); // no attributes
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    fields.add(bytes.toByteArray());
+  }
+
+  public void addMethod(int access, String name, String descriptor, Code code) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeShort(access);
+      out.writeShort(utf8(name));
+      out.writeShort(utf8(descriptor));
+      out.writeShort(1); // the Code attribute
+      code.writeAttribute(this, out);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    methods.add(bytes.toByteArray());
+  }
+
+  public byte[] toByteArray() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(VERSION);
+      out.writeShort(poolCount);
+      out.write(poolBytes.toByteArray());
+      out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(interfaces.size());
+      for (int index : interfaces) {
+        out.writeShort(index);
+      }
+      out.writeShort(fields.size());
+      for (byte[] field : fields) {
+        out.write(field);
+      }
+      out.writeShort(methods.size());
+      for (byte[] method : methods) {
+        out.write(method);
+      }
+      out.writeShort(0); // no class attributes
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,343 @@
+package com.jlox.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * The instructions of one method. Keeps track of the operand stack depth while emitting so max_stack
+ * comes out right, as long as code is emitted in a structured way (the depth at a jump equals the depth at its target).
+ */
+public class Code {
+  public static final int ACONST_NULL = 1;
+  public static final int DCONST_0 = 14;
+  public static final int DCONST_1 = 15;
+  public static final int AALOAD = 50;
+  public static final int AASTORE = 83;
+  public static final int POP = 87;
+  public static final int POP2 = 88;
+  public static final int DUP = 89;
+  public static final int DUP2 = 92;
+  public static final int DADD = 99;
+  public static final int DSUB = 103;
+  public static final int DMUL = 107;
+  public static final int DDIV = 111;
+  public static final int DNEG = 119;
+  public static final int DCMPL = 151;
+  public static final int DCMPG = 152;
+  public static final int IFEQ = 153;
+  public static final int IFNE = 154;
+  public static final int IFLT = 155;
+  public static final int IFGE = 156;
+  public static final int IFGT = 157;
+  public static final int IFLE = 158;
+  public static final int GOTO = 167;
+  public static final int ARETURN = 176;
+  public static final int RETURN = 177;
+
+  private static final int BIPUSH = 16;
+  private static final int SIPUSH = 17;
+  private static final int LDC = 18;
+  private static final int LDC_W = 19;
+  private static final int LDC2_W = 20;
+  private static final int DLOAD = 24;
+  private static final int ALOAD = 25;
+  private static final int DSTORE = 57;
+  private static final int ASTORE = 58;
+  private static final int GETSTATIC = 178;
+  private static final int PUTSTATIC = 179;
+  private static final int INVOKEVIRTUAL = 182;
+  private static final int INVOKESPECIAL = 183;
+  private static final int INVOKESTATIC = 184;
+  private static final int INVOKEINTERFACE = 185;
+  private static final int ANEWARRAY = 189;
+  private static final int CHECKCAST = 192;
+  private static final int WIDE = 196;
+
+  /*
+   * A jump target, jumps to it before it is placed are patched later
+   */
+  public static class Label {
+    private int position = -1;
+    private final List<Integer> jumps = new ArrayList<>(); // positions of jump instructions to patch
+  }
+
+  private final ClassFileWriter classFile;
+  private byte[] code = new byte[256];
+  private int length = 0;
+  private int stack = 0;
+  private int maxStack = 0;
+  private int maxLocals;
+  private final List<int[]> lines = new ArrayList<>(); // pairs of code position and source line
+  private int lastLine = -1;
+
+  public Code(ClassFileWriter classFile, int parameterSlots) {
+    this.classFile = classFile;
+    this.maxLocals = parameterSlots;
+  }
+
+  public int stackDepth() {
+    return stack;
+  }
+
+  /*
+   * Map the following instructions to a line of the compiled source, it shows up in stack traces
+   */
+  public void line(int line) {
+    if (line == lastLine)
+      return;
+    lines.add(new int[] { length, line });
+    lastLine = line;
+  }
+
+  /*
+   * An instruction without operands and the number of stack slots it pushes (positive) or pops (negative)
+   */
+  public void op(int opcode, int stackEffect) {
+    emit(opcode);
+    adjust(stackEffect);
+  }
+
+  public void iconst(int value) {
+    if (value >= -1 && value <= 5) {
+      emit(3 + value); // ICONST_M1 to ICONST_5
+    } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+      emit(BIPUSH);
+      emit(value);
+    } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+      emit(SIPUSH);
+      emitShort(value);
+    } else {
+      ldc(classFile.integer(value));
+      return;
+    }
+    adjust(1);
+  }
+
+  public void dconst(double value) {
+    if (Double.doubleToRawLongBits(value) == 0L) {
+      op(DCONST_0, 2);
+    } else if (value == 1.0) {
+      op(DCONST_1, 2);
+    } else {
+      emit(LDC2_W);
+      emitShort(classFile.doubleConstant(value));
+      adjust(2);
+    }
+  }
+
+  public void sconst(String value) {
+    ldc(classFile.string(value));
+  }
+
+  public void classConst(String internalName) {
+    ldc(classFile.classRef(internalName));
+  }
+
+  private void ldc(int index) {
+    if (index <= 0xFF) {
+      emit(LDC);
+      emit(index);
+    } else {
+      emit(LDC_W);
+      emitShort(index);
+    }
+    adjust(1);
+  }
+
+  public void aload(int slot) {
+    local(ALOAD, slot, 1);
+    adjust(1);
+  }
+
+  public void astore(int slot) {
+    local(ASTORE, slot, 1);
+    adjust(-1);
+  }
+
+  public void dload(int slot) {
+    local(DLOAD, slot, 2);
+    adjust(2);
+  }
+
+  public void dstore(int slot) {
+    local(DSTORE, slot, 2);
+    adjust(-2);
+  }
+
+  private void local(int opcode, int slot, int size) {
+    if (slot <= 0xFF) {
+      emit(opcode);
+      emit(slot);
+    } else {
+      emit(WIDE);
+      emit(opcode);
+      emitShort(slot);
+    }
+    maxLocals = Math.max(maxLocals, slot + size);
+  }
+
+  public void getstatic(String owner, String name, String descriptor) {
+    emit(GETSTATIC);
+    emitShort(classFile.fieldRef(owner, name, descriptor));
+    adjust(slots(descriptor));
+  }
+
+  public void putstatic(String owner, String name, String descriptor) {
+    emit(PUTSTATIC);
+    emitShort(classFile.fieldRef(owner, name, descriptor));
+    adjust(-slots(descriptor));
+  }
+
+  public void invokestatic(String owner, String name, String descriptor) {
+    emit(INVOKESTATIC);
+    emitShort(classFile.methodRef(owner, name, descriptor));
+    adjust(returnSlots(descriptor) - argumentSlots(descriptor));
+  }
+
+  public void invokevirtual(String owner, String name, String descriptor) {
+    emit(INVOKEVIRTUAL);
+    emitShort(classFile.methodRef(owner, name, descriptor));
+    adjust(returnSlots(descriptor) - argumentSlots(descriptor) - 1);
+  }
+
+  public void invokespecial(String owner, String name, String descriptor) {
+    emit(INVOKESPECIAL);
+    emitShort(classFile.methodRef(owner, name, descriptor));
+    adjust(returnSlots(descriptor) - argumentSlots(descriptor) - 1);
+  }
+
+  public void invokeinterface(String owner, String name, String descriptor) {
+    int arguments = argumentSlots(descriptor);
+    emit(INVOKEINTERFACE);
+    emitShort(classFile.interfaceMethodRef(owner, name, descriptor));
+    emit(arguments + 1);
+    emit(0);
+    adjust(returnSlots(descriptor) - arguments - 1);
+  }
+
+  public void anewarray(String internalName) {
+    emit(ANEWARRAY);
+    emitShort(classFile.classRef(internalName));
+  }
+
+  public void checkcast(String internalName) {
+    emit(CHECKCAST);
+    emitShort(classFile.classRef(internalName));
+  }
+
+  /*
+   * A conditional jump (pops its operand) or a GOTO
+   */
+  public void jump(int opcode, Label target) {
+    int position = length;
+    emit(opcode);
+    emitShort(0);
+    if (opcode != GOTO)
+      adjust(-1);
+
+    if (target.position >= 0) {
+      patch(position, target.position);
+    } else {
+      target.jumps.add(position);
+    }
+  }
+
+  public void place(Label label) {
+    label.position = length;
+    for (int jump : label.jumps) {
+      patch(jump, length);
+    }
+    label.jumps.clear();
+  }
+
+  private void patch(int jump, int target) {
+    int offset = target - jump;
+    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+      throw new ClassFileException("Jump is too far for a class file");
+    }
+    code[jump + 1] = (byte) (offset >> 8);
+    code[jump + 2] = (byte) offset;
+  }
+
+  private void adjust(int stackEffect) {
+    stack += stackEffect;
+    maxStack = Math.max(maxStack, stack);
+  }
+
+  private void emit(int b) {
+    if (length == code.length) {
+      byte[] grown = new byte[code.length * 2];
+      System.arraycopy(code, 0, grown, 0, length);
+      code = grown;
+    }
+    code[length++] = (byte) b;
+  }
+
+  private void emitShort(int value) {
+    emit(value >> 8);
+    emit(value);
+  }
+
+  void writeAttribute(ClassFileWriter classFile, DataOutputStream out) throws IOException {
+    if (length > 0xFFFF) {
+      throw new ClassFileException("Method is too large for a class file");
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream attribute = new DataOutputStream(bytes);
+    attribute.writeShort(maxStack);
+    attribute.writeShort(maxLocals);
+    attribute.writeInt(length);
+    attribute.write(code, 0, length);
+    attribute.writeShort(0); // no exception handlers
+    if (lines.isEmpty()) {
+      attribute.writeShort(0);
+    } else {
+      attribute.writeShort(1);
+      attribute.writeShort(classFile.utf8("LineNumberTable"));
+      attribute.writeInt(2 + 4 * lines.size());
+      attribute.writeShort(lines.size());
+      for (int[] line : lines) {
+        attribute.writeShort(line[0]);
+        attribute.writeShort(line[1]);
+      }
+    }
+
+    out.writeShort(classFile.utf8("Code"));
+    out.writeInt(bytes.size());
+    out.write(bytes.toByteArray());
+  }
+
+  private static int slots(String descriptor) {
+    char type = descriptor.charAt(0);
+    if (type == 'V')
+      return 0;
+    return type == 'D' || type == 'J' ? 2 : 1;
+  }
+
+  private static int returnSlots(String methodDescriptor) {
+    return slots(methodDescriptor.substring(methodDescriptor.indexOf(')') + 1));
+  }
+
+  private static int argumentSlots(String methodDescriptor) {
+    int count = 0;
+    int i = 1; // skip '('
+    while (methodDescriptor.charAt(i) != ')') {
+      boolean isArray = false;
+      while (methodDescriptor.charAt(i) == '[') {
+        isArray = true;
+        i++;
+      }
+      char type = methodDescriptor.charAt(i);
+      if (type == 'L') {
+        i = methodDescriptor.indexOf(';', i);
+      }
+      count += !isArray && (type == 'D' || type == 'J') ? 2 : 1;
+      i++;
+    }
+    return count;
+  }
+}
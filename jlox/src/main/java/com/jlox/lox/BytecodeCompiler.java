@@ -0,0 +1,557 @@
+package com.jlox.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.jlox.vm.Chunk;
+import com.jlox.vm.ObjFunction;
+import com.jlox.vm.OpCode;
+
+/*
+ * Compiles a resolved syntax tree into bytecode for the VM in com.jlox.vm.
+ * Local variables live in stack slots of their function's frame, variables of enclosing functions are
+ * reached through upvalues and everything declared at the top level is a global looked up by name.
+ */
+class BytecodeCompiler implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+
+  private enum FunctionType {
+    SCRIPT,
+    FUNCTION,
+    METHOD,
+    INIT
+  }
+
+  private static class Local {
+    final String name;
+    final int depth;
+    boolean isCaptured = false;
+
+    Local(String name, int depth) {
+      this.name = name;
+      this.depth = depth;
+    }
+  }
+
+  private static class Upvalue {
+    final int index;
+    final boolean isLocal;
+
+    Upvalue(int index, boolean isLocal) {
+      this.index = index;
+      this.isLocal = isLocal;
+    }
+  }
+
+  /*
+   * Bookkeeping for the function currently being compiled
+   */
+  private static class FunctionState {
+    final FunctionState enclosing;
+    final ObjFunction function;
+    final FunctionType type;
+    final List<Local> locals = new ArrayList<>();
+    final List<Upvalue> upvalues = new ArrayList<>();
+    int scopeDepth = 0;
+
+    FunctionState(FunctionState enclosing, ObjFunction function, FunctionType type) {
+      this.enclosing = enclosing;
+      this.function = function;
+      this.type = type;
+
+      // slot 0 holds the called function itself, or the receiver for methods
+      boolean isMethod = type == FunctionType.METHOD || type == FunctionType.INIT;
+      locals.add(new Local(isMethod ? "this" : "", 0));
+    }
+  }
+
+  private static final int MAX_SLOTS = 256;
+  private static final int MAX_CONSTANTS = 65536;
+
+  private FunctionState current;
+  private int line = 0; // source line of the code currently being compiled
+
+  ObjFunction compile(List<Stmt> statements) {
+    current = new FunctionState(null, new ObjFunction(null, 0), FunctionType.SCRIPT);
+    for (Stmt stmt : statements) {
+      compile(stmt);
+    }
+    emitReturn();
+    return current.function;
+  }
+
+  private void compile(Stmt stmt) {
+    stmt.accept(this);
+  }
+
+  private void compile(Expr expr) {
+    expr.accept(this);
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    beginScope();
+    for (Stmt s : stmt.statements) {
+      compile(s);
+    }
+    endScope();
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    line = stmt.name.line;
+    int nameConstant = identifierConstant(stmt.name);
+    declareVariable(stmt.name);
+
+    emitByte(OpCode.CLASS);
+    emitShort(nameConstant);
+    defineVariable(nameConstant);
+
+    // load the class again so that the methods can be attached to it
+    namedVariable(stmt.name, false);
+    for (Stmt.Fun method : stmt.methods) {
+      FunctionType type = method.name.lexeme.equals("init") ? FunctionType.INIT : FunctionType.METHOD;
+      function(method, type);
+      line = method.name.line;
+      emitByte(OpCode.METHOD);
+      emitShort(identifierConstant(method.name));
+    }
+    emitByte(OpCode.POP);
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    compile(stmt.expression);
+    emitByte(OpCode.POP);
+    return null;
+  }
+
+  @Override
+  public Void visitFunStmt(Stmt.Fun stmt) {
+    line = stmt.name.line;
+    int nameConstant = identifierConstant(stmt.name);
+    declareVariable(stmt.name); // declared before the body so the function can call itself
+    function(stmt, FunctionType.FUNCTION);
+    defineVariable(nameConstant);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    compile(stmt.cond);
+    int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+    emitByte(OpCode.POP);
+    compile(stmt.thenBranch);
+
+    int elseJump = emitJump(OpCode.JUMP);
+    patchJump(thenJump);
+    emitByte(OpCode.POP);
+    if (stmt.elseBranch != null) {
+      compile(stmt.elseBranch);
+    }
+    patchJump(elseJump);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    int loopStart = chunk().count();
+    compile(stmt.cond);
+
+    int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+    emitByte(OpCode.POP);
+    compile(stmt.body);
+    emitLoop(loopStart);
+
+    patchJump(exitJump);
+    emitByte(OpCode.POP);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    compile(stmt.expression);
+    emitByte(OpCode.PRINT);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    line = stmt.keyword.line;
+    if (stmt.value == null) {
+      emitReturn();
+    } else {
+      compile(stmt.value);
+      emitByte(OpCode.RETURN);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    line = stmt.name.line;
+    int nameConstant = identifierConstant(stmt.name);
+    if (stmt.initializer != null) {
+      compile(stmt.initializer);
+    } else {
+      emitByte(OpCode.NIL);
+    }
+
+    // the local is added after its initializer, which the Resolver guarantees does not read it
+    declareVariable(stmt.name);
+    defineVariable(nameConstant);
+    return null;
+  }
+
+  @Override
+  public Void visitImportStmt(Stmt.Import stmt) {
+    Lox.error(stmt.keyword, "Imports are not supported by the vm engine");
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    compile(expr.value);
+    namedVariable(expr.name, true);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    compile(expr.left);
+    compile(expr.right);
+
+    line = expr.operator.line;
+    switch (expr.operator.type) {
+      case MINUS:
+        emitByte(OpCode.SUBTRACT);
+        break;
+      case SLASH:
+        emitByte(OpCode.DIVIDE);
+        break;
+      case STAR:
+        emitByte(OpCode.MULTIPLY);
+        break;
+      case PLUS:
+        emitByte(OpCode.ADD);
+        break;
+      case GREATER:
+        emitByte(OpCode.GREATER);
+        break;
+      case GREATER_EQUAL:
+        emitByte(OpCode.GREATER_EQUAL);
+        break;
+      case LESS:
+        emitByte(OpCode.LESS);
+        break;
+      case LESS_EQUAL:
+        emitByte(OpCode.LESS_EQUAL);
+        break;
+      case BANG_EQUAL:
+        emitByte(OpCode.NOT_EQUAL);
+        break;
+      case EQUAL_EQUAL:
+        emitByte(OpCode.EQUAL);
+        break;
+      default:
+        throw new RuntimeException(
+            String.format("Unsupported Operator for Binary expression: %s", expr.operator.lexeme));
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    compile(expr.callee);
+    for (Expr arg : expr.args) {
+      compile(arg);
+    }
+
+    line = expr.parenthesis.line;
+    emitByte(expr.tailCall ? OpCode.TAIL_CALL : OpCode.CALL); // the RETURN after it runs only if no frame was replaced
+    emitByte(expr.args.size());
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    compile(expr.object);
+    line = expr.name.line;
+    emitByte(OpCode.GET_PROPERTY);
+    emitShort(identifierConstant(expr.name));
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    compile(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    if (expr.value == null) {
+      emitByte(OpCode.NIL);
+    } else if (expr.value.equals(true)) {
+      emitByte(OpCode.TRUE);
+    } else if (expr.value.equals(false)) {
+      emitByte(OpCode.FALSE);
+    } else {
+      emitByte(OpCode.CONSTANT);
+      emitShort(makeConstant(expr.value));
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    compile(expr.left);
+
+    if (expr.operator.type == TokenType.OR) {
+      // a falsey left side jumps over the short-circuit to evaluate the right side
+      int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+      int endJump = emitJump(OpCode.JUMP);
+      patchJump(elseJump);
+      emitByte(OpCode.POP);
+      compile(expr.right);
+      patchJump(endJump);
+    } else {
+      int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+      emitByte(OpCode.POP);
+      compile(expr.right);
+      patchJump(endJump);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    compile(expr.object);
+    compile(expr.value);
+    line = expr.name.line;
+    emitByte(OpCode.SET_PROPERTY);
+    emitShort(identifierConstant(expr.name));
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    namedVariable(expr.keyword, false);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    compile(expr.right);
+    line = expr.operator.line;
+    switch (expr.operator.type) {
+      case BANG:
+        emitByte(OpCode.NOT);
+        break;
+      case MINUS:
+        emitByte(OpCode.NEGATE);
+        break;
+      default:
+        throw new RuntimeException(
+            String.format("Unsupported Operator for Unary expression: %s", expr.operator.lexeme));
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    namedVariable(expr.name, false);
+    return null;
+  }
+
+  /*
+   * Compiles the body of a function into a new ObjFunction and emits the closure creating it
+   */
+  private void function(Stmt.Fun fun, FunctionType type) {
+    FunctionState state = new FunctionState(current, new ObjFunction(fun.name.lexeme, fun.params.size()), type);
+    current = state;
+    beginScope();
+
+    for (Token param : fun.params) {
+      declareVariable(param);
+    }
+    for (Stmt stmt : fun.body) {
+      compile(stmt);
+    }
+    emitReturn();
+
+    // no endScope() needed: returning discards the whole frame
+    state.function.upvalueCount = state.upvalues.size();
+    current = state.enclosing;
+
+    line = fun.name.line;
+    emitByte(OpCode.CLOSURE);
+    emitShort(makeConstant(state.function));
+    for (Upvalue upvalue : state.upvalues) {
+      emitByte(upvalue.isLocal ? 1 : 0);
+      emitByte(upvalue.index);
+    }
+  }
+
+  private void namedVariable(Token name, boolean assign) {
+    line = name.line;
+    int arg = resolveLocal(current, name.lexeme);
+    if (arg != -1) {
+      emitByte(assign ? OpCode.SET_LOCAL : OpCode.GET_LOCAL);
+      emitByte(arg);
+      return;
+    }
+
+    arg = resolveUpvalue(current, name.lexeme);
+    if (arg != -1) {
+      emitByte(assign ? OpCode.SET_UPVALUE : OpCode.GET_UPVALUE);
+      emitByte(arg);
+      return;
+    }
+
+    emitByte(assign ? OpCode.SET_GLOBAL : OpCode.GET_GLOBAL);
+    emitShort(identifierConstant(name));
+  }
+
+  private int resolveLocal(FunctionState state, String name) {
+    for (int i = state.locals.size() - 1; i >= 0; i--) {
+      if (state.locals.get(i).name.equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int resolveUpvalue(FunctionState state, String name) {
+    if (state.enclosing == null)
+      return -1;
+
+    int local = resolveLocal(state.enclosing, name);
+    if (local != -1) {
+      state.enclosing.locals.get(local).isCaptured = true;
+      return addUpvalue(state, local, true);
+    }
+
+    int upvalue = resolveUpvalue(state.enclosing, name);
+    if (upvalue != -1) {
+      return addUpvalue(state, upvalue, false);
+    }
+
+    return -1;
+  }
+
+  private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+    for (int i = 0; i < state.upvalues.size(); i++) {
+      Upvalue upvalue = state.upvalues.get(i);
+      if (upvalue.index == index && upvalue.isLocal == isLocal) {
+        return i;
+      }
+    }
+
+    if (state.upvalues.size() == MAX_SLOTS) {
+      Lox.error(line, "Too many closure variables in function");
+      return 0;
+    }
+
+    state.upvalues.add(new Upvalue(index, isLocal));
+    return state.upvalues.size() - 1;
+  }
+
+  private void beginScope() {
+    current.scopeDepth++;
+  }
+
+  private void endScope() {
+    current.scopeDepth--;
+
+    List<Local> locals = current.locals;
+    while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+      Local local = locals.remove(locals.size() - 1);
+      emitByte(local.isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+    }
+  }
+
+  // top-level variables are globals, everything else gets the next stack slot of the frame
+  private void declareVariable(Token name) {
+    if (current.scopeDepth == 0)
+      return;
+
+    if (current.locals.size() == MAX_SLOTS) {
+      Lox.error(name, "Too many local variables in function");
+      return;
+    }
+    current.locals.add(new Local(name.lexeme, current.scopeDepth));
+  }
+
+  private void defineVariable(int nameConstant) {
+    if (current.scopeDepth > 0)
+      return; // the value already sits in the local's slot
+
+    emitByte(OpCode.DEFINE_GLOBAL);
+    emitShort(nameConstant);
+  }
+
+  private int identifierConstant(Token name) {
+    return makeConstant(name.lexeme);
+  }
+
+  private int makeConstant(Object value) {
+    int index = chunk().addConstant(value);
+    if (index >= MAX_CONSTANTS) {
+      Lox.error(line, "Too many constants in one chunk");
+      return 0;
+    }
+    return index;
+  }
+
+  private void emitReturn() {
+    if (current.type == FunctionType.INIT) {
+      // initializers always return 'this'
+      emitByte(OpCode.GET_LOCAL);
+      emitByte(0);
+    } else {
+      emitByte(OpCode.NIL);
+    }
+    emitByte(OpCode.RETURN);
+  }
+
+  private int emitJump(byte instruction) {
+    emitByte(instruction);
+    emitShort(0xffff); // placeholder, see patchJump()
+    return chunk().count() - 2;
+  }
+
+  private void patchJump(int offset) {
+    int jump = chunk().count() - offset - 2;
+    if (jump > 0xffff) {
+      Lox.error(line, "Too much code to jump over");
+    }
+
+    chunk().patch(offset, (jump >> 8) & 0xff);
+    chunk().patch(offset + 1, jump & 0xff);
+  }
+
+  private void emitLoop(int loopStart) {
+    emitByte(OpCode.LOOP);
+
+    int offset = chunk().count() - loopStart + 2;
+    if (offset > 0xffff) {
+      Lox.error(line, "Loop body too large");
+    }
+    emitShort(offset);
+  }
+
+  private void emitByte(int b) {
+    chunk().write(b, line);
+  }
+
+  private void emitShort(int value) {
+    emitByte((value >> 8) & 0xff);
+    emitByte(value & 0xff);
+  }
+
+  private Chunk chunk() {
+    return current.function.chunk;
+  }
+}
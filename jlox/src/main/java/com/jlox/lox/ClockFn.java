@@ -0,0 +1,24 @@
+package com.jlox.lox;
+
+import java.util.List;
+
+/*
+ * The native 'clock()', seconds since the epoch
+ */
+class ClockFn implements LoxCallable {
+  @Override
+  public int arity() {
+    return 0;
+  }
+
+  @Override
+  public Object call(Interpreter interpreter,
+      List<Object> arguments) {
+    return (double) System.currentTimeMillis() / 1000.0;
+  }
+
+  @Override
+  public String toString() {
+    return "<native fn>";
+  }
+}
@@ -0,0 +1,9 @@
+package com.jlox.lox;
+
+/*
+ * How the execution of a statement ended. A 'return' unwinds through the enclosing blocks and loops by
+ * handing RETURN upwards until the function call sees it, the returned value waits in Interpreter.returnValue.
+ */
+enum Completion {
+  NORMAL, RETURN
+}
@@ -1,49 +1,138 @@
 package com.jlox.lox;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+/*
+ * Local environments are fixed-size frames: the Resolver assigns every local variable a slot in its scope,
+ * so reads and writes are plain array accesses. Only the global environment stores its variables by name
+ * since globals can be defined late (e.g. in the REPL) and are never resolved.
+ */
 class Environment {
 
-  private final Environment parentEnv; // reference to the parent-environment
-  private final Map<String, Object> values = new HashMap<>();
+  private Environment parentEnv; // reference to the parent-environment, changes when the ValueStack reuses a frame
+  private Object[] slots; // local variables, indexed by their resolved slot
+  private int count = 0; // number of slots defined so far
+  private final Map<Symbol, Object> values; // named variables, only used by the global environment
+  private Environment spare = null; // cleared frame of a block that ran in this one, see child()
 
   Environment() {
     this.parentEnv = null;
+    this.slots = new Object[0];
+    this.values = new HashMap<>();
   }
 
-  Environment(Environment parent) {
+  Environment(Environment parent, int size) {
     this.parentEnv = parent;
+    this.slots = new Object[size];
+    this.values = null;
   }
 
   String getStringRepr() {
+    if (values == null) {
+      return Arrays.stream(slots, 0, count)
+          .map(String::valueOf)
+          .collect(Collectors.joining(", ", "[", "]"));
+    }
+
     return values.keySet().stream()
         .map(key -> key + "=" + values.get(key))
         .collect(Collectors.joining(", ", "{", "}"));
 
   }
 
-  void define(String name, Object value) {
+  Environment parent() {
+    return parentEnv;
+  }
+
+  int size() {
+    return slots.length;
+  }
+
+  /*
+   * Number of slots defined so far, they are read with getAt(0, slot)
+   */
+  int count() {
+    return count;
+  }
+
+  /*
+   * The named variables of the global environment
+   */
+  Map<Symbol, Object> values() {
+    return Collections.unmodifiableMap(values);
+  }
+
+  void define(Symbol name, Object value) {
     values.put(name, value);
   }
 
-  Object get(Token name) {
-    if (values.containsKey(name.lexeme)) {
-      return values.get(name.lexeme);
+  /*
+   * Define the next local variable of this frame.
+   * Declarations in a scope are executed in the same order the Resolver handed out their slots.
+   */
+  void define(Object value) {
+    slots[count++] = value;
+  }
+
+  /*
+   * A frame for a block that runs in this one: the frame a block gave back with park() if there is one,
+   * e.g. the body of a loop on every iteration. Only blocks none of whose locals a closure captures give their
+   * frame back. Closures created in them may still hold it to reach the variables around the block,
+   * so a parked frame keeps this one as its parent.
+   */
+  Environment child(int size) {
+    Environment frame = spare;
+    if (frame == null)
+      return new Environment(this, size);
+
+    spare = null; // taken, a recursive run of the block needs a frame of its own
+    frame.reuse(this, size);
+    return frame;
+  }
+
+  void park(Environment child) {
+    child.clear();
+    spare = child;
+  }
+
+  /*
+   * Turn a frame of the ValueStack or a parked one into a new frame with 'size' empty slots below 'parent'
+   */
+  void reuse(Environment parent, int size) {
+    parentEnv = parent;
+    if (slots.length < size) {
+      slots = new Object[size];
     }
+    count = 0;
+  }
+
+  /*
+   * Drop the values of a frame that went back to the ValueStack or was parked, it shouldn't keep them alive
+   */
+  void clear() {
+    Arrays.fill(slots, 0, count, null);
+    count = 0;
+    spare = null;
+  }
 
-    if (parentEnv != null)
-      return parentEnv.get(name);
+  Object get(Token name) {
+    Object value = values.get(name.symbol);
+    if (value != null || values.containsKey(name.symbol)) {
+      return value;
+    }
 
     throw new RuntimeError(name, String.format("Tried to access undefined variable %s", name.lexeme));
   }
 
-  Object getAt(Integer dist, String name) {
-    return ancestor(dist).values.get(name);
+  Object getAt(int dist, int slot) {
+    return ancestor(dist).slots[slot];
   }
 
-  Environment ancestor(Integer dist) {
+  Environment ancestor(int dist) {
     Environment env = this;
     for (int i = 0; i < dist; i++) {
       env = env.parentEnv;
@@ -53,20 +142,15 @@ class Environment {
   }
 
   void assign(Token name, Object value) {
-    if (values.containsKey(name.lexeme)) {
-      values.put(name.lexeme, value);
-      return;
-    }
-
-    if (parentEnv != null) {
-      parentEnv.assign(name, value);
+    if (values.containsKey(name.symbol)) {
+      values.put(name.symbol, value);
       return;
     }
 
     throw new RuntimeError(name, String.format("Cannot assign to variable %s. Variable does not exist", name.lexeme));
   }
 
-  void assignAt(Integer dist, Token name, Object value) {
-    ancestor(dist).values.put(name.lexeme, value);
+  void assignAt(int dist, int slot, Object value) {
+    ancestor(dist).slots[slot] = value;
   }
 }
@@ -40,6 +40,8 @@ abstract class Expr {
 
     final Token name;
     final Expr value;
+    int depth = -1;
+    int slot = -1;
   }
 
   static class Binary extends Expr {
@@ -57,6 +59,7 @@ abstract class Expr {
     final Expr left;
     final Token operator;
     final Expr right;
+    boolean numeric = false;
   }
 
   static class Call extends Expr {
@@ -74,6 +77,7 @@ abstract class Expr {
     final Expr callee;
     final Token parenthesis;
     final List<Expr> args;
+    boolean tailCall = false;
   }
 
   static class Get extends Expr {
@@ -89,6 +93,7 @@ abstract class Expr {
 
     final Expr object;
     final Token name;
+    PropertyCache cache = new PropertyCache();
   }
 
   static class Grouping extends Expr {
@@ -149,6 +154,7 @@ abstract class Expr {
     final Expr object;
     final Token name;
     final Expr value;
+    PropertyCache cache = new PropertyCache();
   }
 
   static class This extends Expr {
@@ -162,6 +168,8 @@ abstract class Expr {
     }
 
     final Token keyword;
+    int depth = -1;
+    int slot = -1;
   }
 
   static class Unary extends Expr {
@@ -177,6 +185,7 @@ abstract class Expr {
 
     final Token operator;
     final Expr right;
+    boolean numeric = false;
   }
 
   static class Variable extends Expr {
@@ -190,6 +199,9 @@ abstract class Expr {
     }
 
     final Token name;
+    int depth = -1;
+    int slot = -1;
+    boolean numeric = false;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,613 @@
+package com.jlox.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Executable form of an expression built by the NodeCompiler. Every node is specialized for one operation
+ * and holds its already compiled children, so evaluation needs neither a visitor nor a switch on the operator.
+ * Some nodes specialize further on the operand types they see at runtime by replacing themselves in their parent.
+ */
+abstract class ExprNode implements NodeParent {
+
+  NodeParent parent;
+
+  abstract Object evaluate(Environment env);
+
+  @Override
+  public void replaceChild(ExprNode oldChild, ExprNode newChild) {
+    throw new IllegalStateException(String.format("%s has no children", getClass().getSimpleName()));
+  }
+
+  /*
+   * Swap this node for another one in the tree, the replacement is used from the next evaluation on
+   */
+  <T extends ExprNode> T replace(T replacement) {
+    parent.replaceChild(this, replacement);
+    replacement.parent = parent;
+    return replacement;
+  }
+
+  static class Constant extends ExprNode {
+    Constant(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    Object evaluate(Environment env) {
+      return value;
+    }
+
+    final Object value;
+  }
+
+  static class LocalGet extends ExprNode {
+    LocalGet(int depth, int slot) {
+      this.depth = depth;
+      this.slot = slot;
+    }
+
+    @Override
+    Object evaluate(Environment env) {
+      return env.getAt(depth, slot);
+    }
+
+    final int depth;
+    final int slot;
+  }
+
+  static class LocalSet extends ExprNode {
+    LocalSet(int depth, int slot, ExprNode value) {
+      this.depth = depth;
+      this.slot = slot;
+      this.value = adopt(value);
+    }
+
+    @Override
+    Object evaluate(Environment env) {
+      Object v = value.evaluate(env);
+      env.assignAt(depth, slot, v);
+      return v;
+    }
+
+    @Override
+    public void replaceChild(ExprNode oldChild, ExprNode newChild) {
+      if (value == oldChild)
+        value = newChild;
+    }
+
+    final int depth;
+    final int slot;
+    ExprNode value;
+  }
+
+  static class GlobalGet extends ExprNode {
+    GlobalGet(Environment globals, Token name) {
+      this.globals = globals;
+      this.name = name;
+    }
+
+    @Override
+    Object evaluate(Environment env) {
+      return globals.get(name);
+    }
+
+    final Environment globals;
+    final Token name;
+  }
+
+  static class GlobalSet extends ExprNode {
+    GlobalSet(Environment globals, Token name, ExprNode value) {
+      this.globals = globals;
+      this.name = name;
+      this.value = adopt(value);
+    }
+
+    @Override
+    Object evaluate(Environment env) {
+      Object v = value.evaluate(env);
+      globals.assign(name, v);
+      return v;
+    }
+
+    @Override
+    public void replaceChild(ExprNode oldChild, ExprNode newChild) {
+      if (value == oldChild)
+        value = newChild;
+    }
+
+    final Environment globals;
+    final Token name;
+    ExprNode value;
+  }
+
+  static class And extends ExprNode {
+    And(ExprNode left, ExprNode right) {
+      this.left = adopt(left);
+      this.right = adopt(right);
+    }
+
+    @Override
+    Object evaluate(Environment env) {
+      Object l = left.evaluate(env);
+      if (!isTruthy(l))
+        return l;
+      return right.evaluate(env);
+    }
+
+    @Override
+    public void replaceChild(ExprNode oldChild, ExprNode newChild) {
+      if (left == oldChild)
+        left = newChild;
+      if (right == oldChild)
+        right = newChild;
+    }
+
+    ExprNode left;
+    ExprNode right;
+  }
+
+  static class Or extends ExprNode {
+    Or(ExprNode left, ExprNode right) {
+      this.left = adopt(left);
+      this.right = adopt(right);
+    }
+
+    @Override
+    Object evaluate(Environment env) {
+      Object l = left.evaluate(env);
+      if (isTruthy(l))
+        return l;
+      return right.evaluate(env);
+    }
+
+    @Override
+    public void replaceChild(ExprNode oldChild, ExprNode newChild) {
+      if (left == oldChild)
+        left = newChild;
+      if (right == oldChild)
+        right = newChild;
+    }
+
+    ExprNode left;
+    ExprNode right;
+  }
+
+  static class Not extends ExprNode {
+    Not(ExprNode right) {
+      this.right = adopt(right);
+    }
+
+    @Override
+    Object evaluate(Environment env) {
+      return !isTruthy(right.evaluate(env));
+    }
+
+    @Override
+    public void replaceChild(ExprNode oldChild, ExprNode newChild) {
+      if (right == oldChild)
+        right = newChild;
+    }
+
+    ExprNode right;
+  }
+
+  static class Negate extends ExprNode {
+    Negate(Token operator, ExprNode right) {
+      this.operator = operator;
+      this.right = adopt(right);
+    }
+
+    @Override
+    Object evaluate(Environment env) {
+      Object r = right.evaluate(env);
+      if (!(r instanceof Double)) {
+        throw new RuntimeError(operator, String.format("Operand must be a number but was %s", r));
+      }
+      return -(double) r;
+    }
+
+    @Override
+    public void replaceChild(ExprNode oldChild, ExprNode newChild) {
+      if (right == oldChild)
+        right = newChild;
+    }
+
+    final Token operator;
+    ExprNode right;
+  }
+
+  /*
+   * Base for all binary operators: evaluates both operands left to right
+   */
+  abstract static class Binary extends ExprNode {
+    Binary(ExprNode left, Token operator, ExprNode right) {
+      this.left = adopt(left);
+      this.operator = operator;
+      this.right = adopt(right);
+    }
+
+    @Override
+    Object evaluate(Environment env) {
+      Object l = left.evaluate(env);
+      Object r = right.evaluate(env);
+      return apply(l, r);
+    }
+
+    abstract Object apply(Object l, Object r);
+
+    void checkNumberOperands(Object l, Object r) {
+      if (l instanceof Double && r instanceof Double)
+        return;
+
+      throw new RuntimeError(operator, String.format("Operands must be numbers but were %s and %s", l, r));
+    }
+
+    @Override
+    public void replaceChild(ExprNode oldChild, ExprNode newChild) {
+      if (left == oldChild)
+        left = newChild;
+      if (right == oldChild)
+        right = newChild;
+    }
+
+    ExprNode left;
+    final Token operator;
+    ExprNode right;
+  }
+
+  /*
+   * A '+' that has not been executed yet. It picks a specialization from the first operands it sees.
+   */
+  static class UninitializedAdd extends Binary {
+    UninitializedAdd(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object apply(Object l, Object r) {
+      Binary specialized;
+      if (l instanceof Double && r instanceof Double) {
+        specialized = new DoubleAdd(left, operator, right);
+      } else if (l instanceof String && r instanceof String) {
+        specialized = new StringAdd(left, operator, right);
+      } else {
+        specialized = new Add(left, operator, right);
+      }
+      return replace(specialized).apply(l, r);
+    }
+  }
+
+  static class DoubleAdd extends Binary {
+    DoubleAdd(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object apply(Object l, Object r) {
+      if (l instanceof Double && r instanceof Double) {
+        return (double) l + (double) r;
+      }
+      // a new type showed up: fall back to the generic '+' for good
+      return replace(new Add(left, operator, right)).apply(l, r);
+    }
+  }
+
+  static class StringAdd extends Binary {
+    StringAdd(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object apply(Object l, Object r) {
+      if (l instanceof String && r instanceof String) {
+        return (String) l + (String) r;
+      }
+      return replace(new Add(left, operator, right)).apply(l, r);
+    }
+  }
+
+  /*
+   * The generic '+' for sites that have seen more than one type of operands
+   */
+  static class Add extends Binary {
+    Add(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object apply(Object l, Object r) {
+      if (l instanceof Double && r instanceof Double) {
+        return (double) l + (double) r;
+      } else if (l instanceof String && r instanceof String) {
+        return (String) l + (String) r;
+      }
+      throw new RuntimeError(operator,
+          String.format("Operands for '+' must be two numbers or two strings but were: %s and %s", l, r));
+    }
+  }
+
+  static class Subtract extends Binary {
+    Subtract(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object apply(Object l, Object r) {
+      checkNumberOperands(l, r);
+      return (double) l - (double) r;
+    }
+  }
+
+  static class Multiply extends Binary {
+    Multiply(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object apply(Object l, Object r) {
+      checkNumberOperands(l, r);
+      return (double) l * (double) r;
+    }
+  }
+
+  static class Divide extends Binary {
+    Divide(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object apply(Object l, Object r) {
+      checkNumberOperands(l, r);
+      return (double) l / (double) r;
+    }
+  }
+
+  static class Greater extends Binary {
+    Greater(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object apply(Object l, Object r) {
+      checkNumberOperands(l, r);
+      return (double) l > (double) r;
+    }
+  }
+
+  static class GreaterEqual extends Binary {
+    GreaterEqual(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object apply(Object l, Object r) {
+      checkNumberOperands(l, r);
+      return (double) l >= (double) r;
+    }
+  }
+
+  static class Less extends Binary {
+    Less(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object apply(Object l, Object r) {
+      checkNumberOperands(l, r);
+      return (double) l < (double) r;
+    }
+  }
+
+  static class LessEqual extends Binary {
+    LessEqual(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object apply(Object l, Object r) {
+      checkNumberOperands(l, r);
+      return (double) l <= (double) r;
+    }
+  }
+
+  static class Equal extends Binary {
+    Equal(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object apply(Object l, Object r) {
+      return isEqual(l, r);
+    }
+  }
+
+  static class NotEqual extends Binary {
+    NotEqual(ExprNode left, Token operator, ExprNode right) {
+      super(left, operator, right);
+    }
+
+    @Override
+    Object apply(Object l, Object r) {
+      return !isEqual(l, r);
+    }
+  }
+
+  static class Call extends ExprNode {
+    Call(Interpreter interpreter, ExprNode callee, Token parenthesis, ExprNode[] args, boolean tailCall) {
+      this.interpreter = interpreter;
+      this.callee = adopt(callee);
+      this.parenthesis = parenthesis;
+      this.args = args;
+      this.tailCall = tailCall;
+      for (ExprNode arg : args) {
+        adopt(arg);
+      }
+    }
+
+    @Override
+    Object evaluate(Environment env) {
+      return callValue(callee.evaluate(env), env);
+    }
+
+    Object callValue(Object c, Environment env) {
+      List<Object> values = new ArrayList<>(args.length);
+      for (ExprNode arg : args) {
+        values.add(arg.evaluate(env));
+      }
+
+      if (!(c instanceof LoxCallable)) {
+        throw new RuntimeError(parenthesis, String.format("Can only call functions and classes, not '%s'", c));
+      }
+
+      LoxCallable fun = (LoxCallable) c;
+      if (values.size() != fun.arity()) {
+        throw new RuntimeError(parenthesis,
+            String.format("Wrong number of arguments: %s instead of %s", values.size(), fun.arity()));
+      }
+
+      if (tailCall && fun instanceof LoxFunction)
+        return new TailCall((LoxFunction) fun, ((LoxFunction) fun).receiver(), values);
+      return fun.call(interpreter, values);
+    }
+
+    @Override
+    public void replaceChild(ExprNode oldChild, ExprNode newChild) {
+      if (callee == oldChild)
+        callee = newChild;
+      for (int i = 0; i < args.length; i++) {
+        if (args[i] == oldChild)
+          args[i] = newChild;
+      }
+    }
+
+    final Interpreter interpreter;
+    ExprNode callee;
+    final Token parenthesis;
+    final ExprNode[] args;
+    final boolean tailCall; // evaluates to a TailCall instead of calling
+  }
+
+  /*
+   * A call 'obj.method(...)': runs the method with 'obj' as receiver without creating a bound method
+   */
+  static class Invoke extends Call {
+    Invoke(Interpreter interpreter, Get callee, Token parenthesis, ExprNode[] args, boolean tailCall) {
+      super(interpreter, callee, parenthesis, args, tailCall);
+    }
+
+    @Override
+    Object evaluate(Environment env) {
+      Get get = (Get) callee;
+      Object obj = get.object.evaluate(env);
+      if (!(obj instanceof LoxInstance)) {
+        return callValue(get.getOn(obj), env);
+      }
+
+      LoxInstance instance = (LoxInstance) obj;
+      LoxFunction method = get.cache.findMethod(instance, get.name);
+      if (method == null) {
+        return callValue(get.cache.get(instance, get.name), env); // a field holding a callable
+      }
+      if (method.arity() != args.length) {
+        return callValue(method.bind(instance), env); // reports the error after evaluating the arguments
+      }
+
+      if (tailCall) {
+        List<Object> values = new ArrayList<>(args.length);
+        for (ExprNode arg : args) {
+          values.add(arg.evaluate(env));
+        }
+        return new TailCall(method, instance, values);
+      }
+
+      Environment frame = method.newFrame(interpreter, instance);
+      for (ExprNode arg : args) {
+        frame.define(arg.evaluate(env));
+      }
+      return method.invoke(interpreter, frame);
+    }
+  }
+
+  static class Get extends ExprNode {
+    Get(ExprNode object, Token name) {
+      this.object = adopt(object);
+      this.name = name;
+    }
+
+    @Override
+    Object evaluate(Environment env) {
+      return getOn(object.evaluate(env));
+    }
+
+    Object getOn(Object obj) {
+      if (obj instanceof LoxInstance) {
+        return cache.get((LoxInstance) obj, name);
+      }
+
+      throw new RuntimeError(name,
+          String.format("Tried to access %s on %s but %s it not an instance object", name.lexeme, obj, obj));
+    }
+
+    @Override
+    public void replaceChild(ExprNode oldChild, ExprNode newChild) {
+      if (object == oldChild)
+        object = newChild;
+    }
+
+    ExprNode object;
+    final Token name;
+    final PropertyCache cache = new PropertyCache();
+  }
+
+  static class Set extends ExprNode {
+    Set(ExprNode object, Token name, ExprNode value) {
+      this.object = adopt(object);
+      this.name = name;
+      this.value = adopt(value);
+    }
+
+    @Override
+    Object evaluate(Environment env) {
+      Object obj = object.evaluate(env);
+      if (!(obj instanceof LoxInstance)) {
+        throw new RuntimeError(name,
+            String.format("Cannot set fields on variables (%s) that are not instances", name.lexeme));
+      }
+
+      Object v = value.evaluate(env);
+      cache.set((LoxInstance) obj, name, v);
+      return v;
+    }
+
+    @Override
+    public void replaceChild(ExprNode oldChild, ExprNode newChild) {
+      if (object == oldChild)
+        object = newChild;
+      if (value == oldChild)
+        value = newChild;
+    }
+
+    ExprNode object;
+    final Token name;
+    ExprNode value;
+    final PropertyCache cache = new PropertyCache();
+  }
+
+  static boolean isTruthy(Object obj) {
+    if (obj == null)
+      return false;
+    if (obj instanceof Boolean)
+      return (boolean) obj;
+    return true;
+  }
+
+  static boolean isEqual(Object a, Object b) {
+    if (a == null && b == null)
+      return true;
+    if (a == null)
+      return false;
+
+    return a.equals(b);
+  }
+}
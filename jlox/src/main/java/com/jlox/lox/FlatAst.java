@@ -0,0 +1,679 @@
+package com.jlox.lox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * A parsed program packed into int arrays instead of a graph of Expr and Stmt objects.
+ *
+ * Every node is a record of NODE_SIZE ints: its kind (with flags in the upper bits) and up to four operands,
+ * which are node ids, token ids, list offsets or resolved values. Tokens are records of their type, lexeme and line,
+ * lists are a count followed by the items, lexemes and literal values are kept once in a constant table.
+ * A missing child is -1.
+ *
+ * The passes and the Interpreter work on one top-level statement at a time: statement(i) inflates it into the
+ * usual objects and store(i, stmt) writes back what the Resolver and the NumberInference found out about it.
+ * Only the functions and classes a program defines stay around as objects while it runs.
+ */
+class FlatAst {
+  private static final int NODE_SIZE = 5;
+  private static final int TOKEN_SIZE = 3;
+  private static final int NUMERIC = 1 << 8; // flag on Binary, Unary and Variable
+  private static final int ON_STACK = 1 << 9; // flag on Block and Fun
+  private static final int TAIL_CALL = 1 << 10; // flag on Call
+  private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+  // tags of the constants in the serialized form
+  private static final byte NIL_CONSTANT = 0;
+  private static final byte STRING_CONSTANT = 1;
+  private static final byte NUMBER_CONSTANT = 2;
+  private static final byte BOOLEAN_CONSTANT = 3;
+
+  // node kinds
+  private static final int ASSIGN = 0;
+  private static final int BINARY = 1;
+  private static final int CALL = 2;
+  private static final int GET = 3;
+  private static final int GROUPING = 4;
+  private static final int LITERAL = 5;
+  private static final int LOGICAL = 6;
+  private static final int SET = 7;
+  private static final int THIS = 8;
+  private static final int UNARY = 9;
+  private static final int VARIABLE = 10;
+  private static final int BLOCK = 11;
+  private static final int CLASS = 12;
+  private static final int EXPRESSION = 13;
+  private static final int FUN = 14;
+  private static final int IF = 15;
+  private static final int WHILE = 16;
+  private static final int PRINT = 17;
+  private static final int RETURN = 18;
+  private static final int VAR = 19;
+  private static final int IMPORT = 20;
+
+  private int[] nodes = new int[NODE_SIZE * 1024];
+  private int nodeCount = 0;
+  private int[] tokens = new int[TOKEN_SIZE * 1024];
+  private int tokenCount = 0;
+  private int[] lists = new int[1024];
+  private int listsSize = 0;
+  private int[] statements = new int[256]; // node ids of the top-level statements
+  private int size = 0;
+
+  private Object[] constants = new Object[256];
+  private int constantCount = 0;
+  private int[] constantTable = null; // open addressing, constant index + 1 by hash, built when needed
+
+  /*
+   * Number of top-level statements
+   */
+  int size() {
+    return size;
+  }
+
+  int nodeCount() {
+    return nodeCount;
+  }
+
+  /*
+   * Drops the room the arrays kept for growing and the lookup table of the constants, for when parsing is done
+   */
+  void trim() {
+    nodes = Arrays.copyOf(nodes, nodeCount * NODE_SIZE);
+    tokens = Arrays.copyOf(tokens, tokenCount * TOKEN_SIZE);
+    lists = Arrays.copyOf(lists, listsSize);
+    statements = Arrays.copyOf(statements, size);
+    constants = Arrays.copyOf(constants, constantCount);
+    constantTable = null;
+  }
+
+  void add(Stmt stmt) {
+    if (size == statements.length) {
+      statements = Arrays.copyOf(statements, Math.max(64, size * 2));
+    }
+    statements[size++] = pack(stmt);
+  }
+
+  /*
+   * The top-level statement 'index' as objects, including what was stored about it
+   */
+  Stmt statement(int index) {
+    return inflate(statements[index]);
+  }
+
+  /*
+   * Keep the depths, slots, frame sizes and numeric flags that were filled into an inflated statement
+   */
+  void store(int index, Stmt stmt) {
+    storeNode(statements[index], stmt);
+  }
+
+  /*
+   * Packs a parsed program that exists as objects already
+   */
+  static FlatAst of(List<Stmt> statements) {
+    FlatAst program = new FlatAst();
+    for (Stmt stmt : statements) {
+      program.add(stmt);
+    }
+    program.trim();
+    return program;
+  }
+
+  /*
+   * All top-level statements as objects
+   */
+  List<Stmt> statements() {
+    List<Stmt> stmts = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      stmts.add(statement(i));
+    }
+    return stmts;
+  }
+
+  // --- serializing
+
+  /*
+   * Writes the arrays as they are. Modules are linked again after reading, so they are written as nil.
+   */
+  void write(DataOutputStream out) throws IOException {
+    writeInts(out, nodes, nodeCount * NODE_SIZE);
+    writeInts(out, tokens, tokenCount * TOKEN_SIZE);
+    writeInts(out, lists, listsSize);
+    writeInts(out, statements, size);
+
+    out.writeInt(constantCount);
+    for (int i = 0; i < constantCount; i++) {
+      Object value = constants[i];
+      if (value instanceof String) {
+        out.writeByte(STRING_CONSTANT);
+        byte[] utf8 = ((String) value).getBytes(StandardCharsets.UTF_8); // writeUTF stops at 64 KB
+        out.writeInt(utf8.length);
+        out.write(utf8);
+      } else if (value instanceof Double) {
+        out.writeByte(NUMBER_CONSTANT);
+        out.writeDouble((Double) value);
+      } else if (value instanceof Boolean) {
+        out.writeByte(BOOLEAN_CONSTANT);
+        out.writeBoolean((Boolean) value);
+      } else {
+        out.writeByte(NIL_CONSTANT);
+      }
+    }
+  }
+
+  static FlatAst read(DataInputStream in) throws IOException {
+    FlatAst program = new FlatAst();
+    program.nodes = readInts(in);
+    program.nodeCount = program.nodes.length / NODE_SIZE;
+    program.tokens = readInts(in);
+    program.tokenCount = program.tokens.length / TOKEN_SIZE;
+    program.lists = readInts(in);
+    program.listsSize = program.lists.length;
+    program.statements = readInts(in);
+    program.size = program.statements.length;
+
+    program.constantCount = in.readInt();
+    program.constants = new Object[program.constantCount];
+    for (int i = 0; i < program.constantCount; i++) {
+      byte tag = in.readByte();
+      switch (tag) {
+        case STRING_CONSTANT:
+          byte[] utf8 = new byte[in.readInt()];
+          in.readFully(utf8);
+          program.constants[i] = new String(utf8, StandardCharsets.UTF_8);
+          break;
+        case NUMBER_CONSTANT:
+          program.constants[i] = in.readDouble();
+          break;
+        case BOOLEAN_CONSTANT:
+          program.constants[i] = in.readBoolean();
+          break;
+        case NIL_CONSTANT:
+          break;
+        default:
+          throw new IOException(String.format("Unknown constant tag %d", tag));
+      }
+    }
+    return program;
+  }
+
+  private static void writeInts(DataOutputStream out, int[] values, int count) throws IOException {
+    out.writeInt(count);
+    for (int i = 0; i < count; i++) {
+      out.writeInt(values[i]);
+    }
+  }
+
+  private static int[] readInts(DataInputStream in) throws IOException {
+    int[] values = new int[in.readInt()];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = in.readInt();
+    }
+    return values;
+  }
+
+  // --- packing
+
+  private int pack(Stmt stmt) {
+    if (stmt instanceof Stmt.Block) {
+      Stmt.Block block = (Stmt.Block) stmt;
+      return node(BLOCK | (block.onStack ? ON_STACK : 0), packStatements(block.statements), block.frameSize,
+          block.reusable ? 1 : 0, -1);
+    } else if (stmt instanceof Stmt.Class) {
+      Stmt.Class cls = (Stmt.Class) stmt;
+      return node(CLASS, token(cls.name), packStatements(cls.methods), -1, -1);
+    } else if (stmt instanceof Stmt.Expression) {
+      return node(EXPRESSION, pack(((Stmt.Expression) stmt).expression), -1, -1, -1);
+    } else if (stmt instanceof Stmt.Fun) {
+      Stmt.Fun fun = (Stmt.Fun) stmt;
+      int[] params = new int[fun.params.size()];
+      for (int i = 0; i < params.length; i++) {
+        params[i] = token(fun.params.get(i));
+      }
+      return node(FUN | (fun.onStack ? ON_STACK : 0), token(fun.name), list(params), packStatements(fun.body),
+          fun.frameSize);
+    } else if (stmt instanceof Stmt.If) {
+      Stmt.If ifStmt = (Stmt.If) stmt;
+      return node(IF, pack(ifStmt.cond), pack(ifStmt.thenBranch), pack(ifStmt.elseBranch), -1);
+    } else if (stmt instanceof Stmt.While) {
+      Stmt.While loop = (Stmt.While) stmt;
+      return node(WHILE, pack(loop.cond), pack(loop.body), -1, -1);
+    } else if (stmt instanceof Stmt.Print) {
+      return node(PRINT, pack(((Stmt.Print) stmt).expression), -1, -1, -1);
+    } else if (stmt instanceof Stmt.Return) {
+      Stmt.Return ret = (Stmt.Return) stmt;
+      return node(RETURN, token(ret.keyword), pack(ret.value), -1, -1);
+    } else if (stmt instanceof Stmt.Var) {
+      Stmt.Var var = (Stmt.Var) stmt;
+      return node(VAR, token(var.name), pack(var.initializer), -1, -1);
+    } else if (stmt instanceof Stmt.Import) {
+      Stmt.Import imp = (Stmt.Import) stmt;
+      return node(IMPORT, token(imp.keyword), token(imp.path), constant(imp.path.literal), constant(imp.module));
+    }
+    return -1; // null
+  }
+
+  private int packStatements(List<? extends Stmt> stmts) {
+    int[] items = new int[stmts.size()];
+    for (int i = 0; i < items.length; i++) {
+      items[i] = pack(stmts.get(i));
+    }
+    return list(items);
+  }
+
+  private int pack(Expr expr) {
+    if (expr instanceof Expr.Assign) {
+      Expr.Assign assign = (Expr.Assign) expr;
+      return node(ASSIGN, token(assign.name), pack(assign.value), assign.depth, assign.slot);
+    } else if (expr instanceof Expr.Binary) {
+      Expr.Binary binary = (Expr.Binary) expr;
+      return node(BINARY | (binary.numeric ? NUMERIC : 0), pack(binary.left), token(binary.operator),
+          pack(binary.right), -1);
+    } else if (expr instanceof Expr.Call) {
+      Expr.Call call = (Expr.Call) expr;
+      int[] args = new int[call.args.size()];
+      for (int i = 0; i < args.length; i++) {
+        args[i] = pack(call.args.get(i));
+      }
+      return node(CALL | (call.tailCall ? TAIL_CALL : 0), pack(call.callee), token(call.parenthesis), list(args), -1);
+    } else if (expr instanceof Expr.Get) {
+      Expr.Get get = (Expr.Get) expr;
+      return node(GET, pack(get.object), token(get.name), -1, -1);
+    } else if (expr instanceof Expr.Grouping) {
+      return node(GROUPING, pack(((Expr.Grouping) expr).expression), -1, -1, -1);
+    } else if (expr instanceof Expr.Literal) {
+      return node(LITERAL, constant(((Expr.Literal) expr).value), -1, -1, -1);
+    } else if (expr instanceof Expr.Logical) {
+      Expr.Logical logical = (Expr.Logical) expr;
+      return node(LOGICAL, pack(logical.left), token(logical.operator), pack(logical.right), -1);
+    } else if (expr instanceof Expr.Set) {
+      Expr.Set set = (Expr.Set) expr;
+      return node(SET, pack(set.object), token(set.name), pack(set.value), -1);
+    } else if (expr instanceof Expr.This) {
+      Expr.This self = (Expr.This) expr;
+      return node(THIS, token(self.keyword), self.depth, self.slot, -1);
+    } else if (expr instanceof Expr.Unary) {
+      Expr.Unary unary = (Expr.Unary) expr;
+      return node(UNARY | (unary.numeric ? NUMERIC : 0), token(unary.operator), pack(unary.right), -1, -1);
+    } else if (expr instanceof Expr.Variable) {
+      Expr.Variable variable = (Expr.Variable) expr;
+      return node(VARIABLE | (variable.numeric ? NUMERIC : 0), token(variable.name), variable.depth, variable.slot,
+          -1);
+    }
+    return -1; // null
+  }
+
+  private int node(int kind, int a, int b, int c, int d) {
+    if ((nodeCount + 1) * NODE_SIZE > nodes.length) {
+      nodes = Arrays.copyOf(nodes, Math.max(NODE_SIZE * 64, nodes.length * 2));
+    }
+    int at = nodeCount * NODE_SIZE;
+    nodes[at] = kind;
+    nodes[at + 1] = a;
+    nodes[at + 2] = b;
+    nodes[at + 3] = c;
+    nodes[at + 4] = d;
+    return nodeCount++;
+  }
+
+  private int token(Token token) {
+    if ((tokenCount + 1) * TOKEN_SIZE > tokens.length) {
+      tokens = Arrays.copyOf(tokens, Math.max(TOKEN_SIZE * 64, tokens.length * 2));
+    }
+    int at = tokenCount * TOKEN_SIZE;
+    tokens[at] = token.type.ordinal();
+    tokens[at + 1] = constant(token.lexeme);
+    tokens[at + 2] = token.line;
+    return tokenCount++;
+  }
+
+  private int list(int[] items) {
+    while (listsSize + items.length + 1 > lists.length) {
+      lists = Arrays.copyOf(lists, Math.max(64, lists.length * 2));
+    }
+    int at = listsSize;
+    lists[at] = items.length;
+    System.arraycopy(items, 0, lists, at + 1, items.length);
+    listsSize += items.length + 1;
+    return at;
+  }
+
+  private int constant(Object value) {
+    if (value == null)
+      return -1;
+
+    if (constantTable == null || constantCount * 2 >= constantTable.length) {
+      rebuildConstantTable();
+    }
+
+    int mask = constantTable.length - 1;
+    int at = spread(value.hashCode()) & mask;
+    while (constantTable[at] != 0) {
+      int index = constantTable[at] - 1;
+      if (constants[index].equals(value))
+        return index;
+      at = (at + 1) & mask;
+    }
+
+    if (constantCount == constants.length) {
+      constants = Arrays.copyOf(constants, Math.max(64, constantCount * 2));
+    }
+    constants[constantCount] = value;
+    constantTable[at] = constantCount + 1;
+    return constantCount++;
+  }
+
+  private void rebuildConstantTable() {
+    int capacity = 256;
+    while (capacity <= constantCount * 4) {
+      capacity *= 2;
+    }
+
+    constantTable = new int[capacity];
+    for (int index = 0; index < constantCount; index++) {
+      if (constants[index] == null)
+        continue; // a module dropped by write
+      int at = spread(constants[index].hashCode()) & (capacity - 1);
+      while (constantTable[at] != 0) {
+        at = (at + 1) & (capacity - 1);
+      }
+      constantTable[at] = index + 1;
+    }
+  }
+
+  /*
+   * Doubles of small integers only differ in their upper bits
+   */
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  // --- reading
+
+  private int kind(int node) {
+    return nodes[node * NODE_SIZE] & 0xFF;
+  }
+
+  private boolean hasFlag(int node, int flag) {
+    return (nodes[node * NODE_SIZE] & flag) != 0;
+  }
+
+  /*
+   * Operand 0 to 3 of a node
+   */
+  private int operand(int node, int index) {
+    return nodes[node * NODE_SIZE + 1 + index];
+  }
+
+  private void setOperand(int node, int index, int value) {
+    nodes[node * NODE_SIZE + 1 + index] = value;
+  }
+
+  private void setFlag(int node, int flag, boolean set) {
+    int at = node * NODE_SIZE;
+    nodes[at] = set ? nodes[at] | flag : nodes[at] & ~flag;
+  }
+
+  private Token tokenAt(int token) {
+    int at = token * TOKEN_SIZE;
+    return new Token(TOKEN_TYPES[tokens[at]], (String) constants[tokens[at + 1]], null, tokens[at + 2]);
+  }
+
+  private int listSize(int list) {
+    return lists[list];
+  }
+
+  private int listItem(int list, int index) {
+    return lists[list + 1 + index];
+  }
+
+  // --- inflating
+
+  private Stmt inflate(int node) {
+    if (node < 0)
+      return null;
+
+    switch (kind(node)) {
+      case BLOCK: {
+        Stmt.Block block = new Stmt.Block(inflateStatements(operand(node, 0)));
+        block.frameSize = operand(node, 1);
+        block.reusable = operand(node, 2) == 1;
+        block.onStack = hasFlag(node, ON_STACK);
+        return block;
+      }
+      case CLASS: {
+        List<Stmt.Fun> methods = new ArrayList<>();
+        for (Stmt method : inflateStatements(operand(node, 1))) {
+          methods.add((Stmt.Fun) method);
+        }
+        return new Stmt.Class(tokenAt(operand(node, 0)), methods);
+      }
+      case EXPRESSION:
+        return new Stmt.Expression(inflateExpr(operand(node, 0)));
+      case FUN: {
+        int paramList = operand(node, 1);
+        List<Token> params = new ArrayList<>();
+        for (int i = 0; i < listSize(paramList); i++) {
+          params.add(tokenAt(listItem(paramList, i)));
+        }
+        Stmt.Fun fun = new Stmt.Fun(tokenAt(operand(node, 0)), params, inflateStatements(operand(node, 2)));
+        fun.frameSize = operand(node, 3);
+        fun.onStack = hasFlag(node, ON_STACK);
+        return fun;
+      }
+      case IF:
+        return new Stmt.If(inflateExpr(operand(node, 0)), inflate(operand(node, 1)), inflate(operand(node, 2)));
+      case WHILE:
+        return new Stmt.While(inflateExpr(operand(node, 0)), inflate(operand(node, 1)));
+      case PRINT:
+        return new Stmt.Print(inflateExpr(operand(node, 0)));
+      case RETURN:
+        return new Stmt.Return(tokenAt(operand(node, 0)), inflateExpr(operand(node, 1)));
+      case VAR:
+        return new Stmt.Var(tokenAt(operand(node, 0)), inflateExpr(operand(node, 1)));
+      case IMPORT: {
+        Token path = tokenAt(operand(node, 1));
+        Stmt.Import imp = new Stmt.Import(tokenAt(operand(node, 0)),
+            new Token(path.type, path.lexeme, constants[operand(node, 2)], path.line));
+        imp.module = operand(node, 3) < 0 ? null : (Module) constants[operand(node, 3)];
+        return imp;
+      }
+      default:
+        throw new IllegalStateException(String.format("Node %d is not a statement", node));
+    }
+  }
+
+  private List<Stmt> inflateStatements(int list) {
+    List<Stmt> stmts = new ArrayList<>(listSize(list));
+    for (int i = 0; i < listSize(list); i++) {
+      stmts.add(inflate(listItem(list, i)));
+    }
+    return stmts;
+  }
+
+  private Expr inflateExpr(int node) {
+    if (node < 0)
+      return null;
+
+    switch (kind(node)) {
+      case ASSIGN: {
+        Expr.Assign assign = new Expr.Assign(tokenAt(operand(node, 0)), inflateExpr(operand(node, 1)));
+        assign.depth = operand(node, 2);
+        assign.slot = operand(node, 3);
+        return assign;
+      }
+      case BINARY: {
+        Expr.Binary binary = new Expr.Binary(inflateExpr(operand(node, 0)), tokenAt(operand(node, 1)),
+            inflateExpr(operand(node, 2)));
+        binary.numeric = hasFlag(node, NUMERIC);
+        return binary;
+      }
+      case CALL: {
+        int argList = operand(node, 2);
+        List<Expr> args = new ArrayList<>(listSize(argList));
+        for (int i = 0; i < listSize(argList); i++) {
+          args.add(inflateExpr(listItem(argList, i)));
+        }
+        Expr.Call call = new Expr.Call(inflateExpr(operand(node, 0)), tokenAt(operand(node, 1)), args);
+        call.tailCall = hasFlag(node, TAIL_CALL);
+        return call;
+      }
+      case GET:
+        return new Expr.Get(inflateExpr(operand(node, 0)), tokenAt(operand(node, 1)));
+      case GROUPING:
+        return new Expr.Grouping(inflateExpr(operand(node, 0)));
+      case LITERAL: {
+        int constant = operand(node, 0);
+        return new Expr.Literal(constant < 0 ? null : constants[constant]);
+      }
+      case LOGICAL:
+        return new Expr.Logical(inflateExpr(operand(node, 0)), tokenAt(operand(node, 1)),
+            inflateExpr(operand(node, 2)));
+      case SET:
+        return new Expr.Set(inflateExpr(operand(node, 0)), tokenAt(operand(node, 1)), inflateExpr(operand(node, 2)));
+      case THIS: {
+        Expr.This self = new Expr.This(tokenAt(operand(node, 0)));
+        self.depth = operand(node, 1);
+        self.slot = operand(node, 2);
+        return self;
+      }
+      case UNARY: {
+        Expr.Unary unary = new Expr.Unary(tokenAt(operand(node, 0)), inflateExpr(operand(node, 1)));
+        unary.numeric = hasFlag(node, NUMERIC);
+        return unary;
+      }
+      case VARIABLE: {
+        Expr.Variable variable = new Expr.Variable(tokenAt(operand(node, 0)));
+        variable.depth = operand(node, 1);
+        variable.slot = operand(node, 2);
+        variable.numeric = hasFlag(node, NUMERIC);
+        return variable;
+      }
+      default:
+        throw new IllegalStateException(String.format("Node %d is not an expression", node));
+    }
+  }
+
+  // --- storing analysis results, walks the nodes and the inflated objects side by side
+
+  private void storeNode(int node, Stmt stmt) {
+    if (node < 0)
+      return;
+
+    switch (kind(node)) {
+      case BLOCK:
+        setOperand(node, 1, ((Stmt.Block) stmt).frameSize);
+        setOperand(node, 2, ((Stmt.Block) stmt).reusable ? 1 : 0);
+        setFlag(node, ON_STACK, ((Stmt.Block) stmt).onStack);
+        storeStatements(operand(node, 0), ((Stmt.Block) stmt).statements);
+        break;
+      case CLASS:
+        storeStatements(operand(node, 1), ((Stmt.Class) stmt).methods);
+        break;
+      case EXPRESSION:
+        storeNode(operand(node, 0), ((Stmt.Expression) stmt).expression);
+        break;
+      case FUN:
+        setOperand(node, 3, ((Stmt.Fun) stmt).frameSize);
+        setFlag(node, ON_STACK, ((Stmt.Fun) stmt).onStack);
+        storeStatements(operand(node, 2), ((Stmt.Fun) stmt).body);
+        break;
+      case IF: {
+        Stmt.If ifStmt = (Stmt.If) stmt;
+        storeNode(operand(node, 0), ifStmt.cond);
+        storeNode(operand(node, 1), ifStmt.thenBranch);
+        storeNode(operand(node, 2), ifStmt.elseBranch);
+        break;
+      }
+      case WHILE:
+        storeNode(operand(node, 0), ((Stmt.While) stmt).cond);
+        storeNode(operand(node, 1), ((Stmt.While) stmt).body);
+        break;
+      case PRINT:
+        storeNode(operand(node, 0), ((Stmt.Print) stmt).expression);
+        break;
+      case RETURN:
+        storeNode(operand(node, 1), ((Stmt.Return) stmt).value);
+        break;
+      case VAR:
+        storeNode(operand(node, 1), ((Stmt.Var) stmt).initializer);
+        break;
+      case IMPORT:
+        setOperand(node, 3, constant(((Stmt.Import) stmt).module));
+        break;
+    }
+  }
+
+  private void storeStatements(int list, List<? extends Stmt> stmts) {
+    for (int i = 0; i < stmts.size(); i++) {
+      storeNode(listItem(list, i), stmts.get(i));
+    }
+  }
+
+  private void storeNode(int node, Expr expr) {
+    if (node < 0)
+      return;
+
+    switch (kind(node)) {
+      case ASSIGN: {
+        Expr.Assign assign = (Expr.Assign) expr;
+        setOperand(node, 2, assign.depth);
+        setOperand(node, 3, assign.slot);
+        storeNode(operand(node, 1), assign.value);
+        break;
+      }
+      case BINARY: {
+        Expr.Binary binary = (Expr.Binary) expr;
+        setFlag(node, NUMERIC, binary.numeric);
+        storeNode(operand(node, 0), binary.left);
+        storeNode(operand(node, 2), binary.right);
+        break;
+      }
+      case CALL: {
+        Expr.Call call = (Expr.Call) expr;
+        setFlag(node, TAIL_CALL, call.tailCall);
+        storeNode(operand(node, 0), call.callee);
+        for (int i = 0; i < call.args.size(); i++) {
+          storeNode(listItem(operand(node, 2), i), call.args.get(i));
+        }
+        break;
+      }
+      case GET:
+        storeNode(operand(node, 0), ((Expr.Get) expr).object);
+        break;
+      case GROUPING:
+        storeNode(operand(node, 0), ((Expr.Grouping) expr).expression);
+        break;
+      case LOGICAL:
+        storeNode(operand(node, 0), ((Expr.Logical) expr).left);
+        storeNode(operand(node, 2), ((Expr.Logical) expr).right);
+        break;
+      case SET:
+        storeNode(operand(node, 0), ((Expr.Set) expr).object);
+        storeNode(operand(node, 2), ((Expr.Set) expr).value);
+        break;
+      case THIS:
+        setOperand(node, 1, ((Expr.This) expr).depth);
+        setOperand(node, 2, ((Expr.This) expr).slot);
+        break;
+      case UNARY:
+        setFlag(node, NUMERIC, ((Expr.Unary) expr).numeric);
+        storeNode(operand(node, 1), ((Expr.Unary) expr).right);
+        break;
+      case VARIABLE: {
+        Expr.Variable variable = (Expr.Variable) expr;
+        setOperand(node, 1, variable.depth);
+        setOperand(node, 2, variable.slot);
+        setFlag(node, NUMERIC, variable.numeric);
+        break;
+      }
+    }
+  }
+}
@@ -5,33 +5,17 @@ import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
 
-class ClockFn implements LoxCallable {
-  @Override
-  public int arity() {
-    return 0;
-  }
-
-  @Override
-  public Object call(Interpreter interpreter,
-      List<Object> arguments) {
-    return (double) System.currentTimeMillis() / 1000.0;
-  }
-
-  @Override
-  public String toString() {
-    return "<native fn>";
-  }
-}
-
-class Interpreter implements Stmt.Visitor<Void>, Expr.Visitor<Object> {
+class Interpreter implements Stmt.Visitor<Completion>, Expr.Visitor<Object> {
 
   boolean debugMode = false;
   final Environment globals = new Environment();
   private Environment env = globals; // env is a pointer to the current env, global always references the global env
-  private final Map<Expr, Integer> locals = new HashMap<>(); // for each Syntax Tree node stores the depth
+  Object returnValue = null; // value of the last executed 'return', valid while a RETURN completion unwinds
+  final ValueStack stack = new ValueStack(); // frames of the calls and blocks no closure can reach
+  final TierManager tiers = new TierManager(this);
 
   Interpreter() {
-    globals.define("clock", new ClockFn());
+    globals.define(Symbol.of("clock"), new ClockFn());
   }
 
   String getEnvStringRepr() {
@@ -44,70 +28,101 @@ class Interpreter implements Stmt.Visitor<Void>, Expr.Visitor<Object> {
         execStatement(stmt);
       }
     } catch (RuntimeError re) {
+      stack.reset();
       Lox.runtimeError(re);
     }
   }
 
-  private void execStatement(Stmt stmt) {
-    stmt.accept(this);
+  /*
+   * Run a program stored in a FlatAst, every top-level statement is inflated right before it runs
+   */
+  void interpret(FlatAst program) {
+    try {
+      for (int i = 0; i < program.size(); i++) {
+        execStatement(program.statement(i));
+      }
+    } catch (RuntimeError re) {
+      stack.reset();
+      Lox.runtimeError(re);
+    }
   }
 
-  void resolveToLocals(Expr expr, Integer depth) {
-    locals.put(expr, depth);
+  /*
+   * Run a program compiled by the NodeCompiler
+   */
+  void interpret(StmtNode program) {
+    try {
+      program.execute(globals);
+    } catch (RuntimeError re) {
+      stack.reset();
+      Lox.runtimeError(re);
+    }
+  }
+
+  private Completion execStatement(Stmt stmt) {
+    return stmt.accept(this);
   }
 
   @Override
-  public Void visitIfStmt(Stmt.If stmt) {
+  public Completion visitIfStmt(Stmt.If stmt) {
     if (isTruthy(evaluate(stmt.cond))) {
-      execStatement(stmt.thenBranch);
+      return execStatement(stmt.thenBranch);
     } else if (stmt.elseBranch != null) {
-      execStatement(stmt.elseBranch);
+      return execStatement(stmt.elseBranch);
     }
-    return null;
+    return Completion.NORMAL;
   }
 
   @Override
-  public Void visitClassStmt(Stmt.Class stmt) {
-    env.define(stmt.name.lexeme, null);
-
-    Map<String, LoxFunction> methods = new HashMap<>();
+  public Completion visitClassStmt(Stmt.Class stmt) {
+    Map<Symbol, LoxFunction> methods = new HashMap<>();
     for (Stmt.Fun func : stmt.methods) {
-      LoxFunction f = new LoxFunction(func, env, func.name.lexeme.equals("init"));
-      methods.put(func.name.lexeme, f);
+      LoxFunction f = new LoxFunction(func, env, func.name.symbol == Symbol.INIT, true, null);
+      methods.put(func.name.symbol, f);
     }
 
     LoxClass cls = new LoxClass(stmt.name.lexeme, methods);
-    env.assign(stmt.name, cls);
-    return null;
+    declare(stmt.name, cls);
+    return Completion.NORMAL;
   }
 
   @Override
-  public Void visitFunStmt(Stmt.Fun stmt) {
+  public Completion visitFunStmt(Stmt.Fun stmt) {
     // use the current environment as the base for when the function is created
     // that will allow the function to access all variables in there
     // even when the function is returned from another function
     LoxFunction fun = new LoxFunction(stmt, env, false);
-    env.define(stmt.name.lexeme, fun);
-    return null;
+    declare(stmt.name, fun);
+    return Completion.NORMAL;
   }
 
   @Override
-  public Void visitReturnStmt(Stmt.Return stmt) {
+  public Completion visitReturnStmt(Stmt.Return stmt) {
     Object value = null;
     if (stmt.value != null) {
       value = evaluate(stmt.value);
     }
 
-    throw new Return(value); // this will be caught by call()
+    returnValue = value; // picked up by the LoxFunction once the RETURN has unwound to it
+    return Completion.RETURN;
   }
 
   @Override
-  public Void visitWhileStmt(Stmt.While stmt) {
+  public Completion visitWhileStmt(Stmt.While stmt) {
+    if (stmt.compiledLoop != null)
+      return stmt.compiledLoop.execute(env);
+
     while (isTruthy(evaluate(stmt.cond))) {
-      execStatement(stmt.body);
+      if (execStatement(stmt.body) == Completion.RETURN)
+        return Completion.RETURN;
+
+      // once the loop is hot the remaining iterations run compiled
+      StmtNode compiledLoop = tiers.promote(stmt, env == globals);
+      if (compiledLoop != null)
+        return compiledLoop.execute(env);
     }
 
-    return null;
+    return Completion.NORMAL;
   }
 
   @Override
@@ -128,12 +143,45 @@ class Interpreter implements Stmt.Visitor<Void>, Expr.Visitor<Object> {
 
   @Override
   public Object visitCallExpr(Expr.Call expr) {
+    if (expr.callee instanceof Expr.Get) {
+      return invokeProperty(expr, (Expr.Get) expr.callee);
+    }
+
     Object callee = evaluate(expr.callee); // e.g. a literal string ref to the function name or another function call
+    return callValue(expr, callee);
+  }
+
+  /*
+   * A call like 'obj.method(a, b)': the method runs with 'obj' as receiver without creating a bound method
+   * and the arguments are evaluated straight into its frame
+   */
+  private Object invokeProperty(Expr.Call expr, Expr.Get get) {
+    Object obj = evaluate(get.object);
+    if (!(obj instanceof LoxInstance)) {
+      return callValue(expr, visitGetOn(get, obj));
+    }
 
-    List<Object> args = new ArrayList<>();
+    LoxInstance instance = (LoxInstance) obj;
+    LoxFunction method = get.cache.findMethod(instance, get.name);
+    if (method == null) {
+      return callValue(expr, get.cache.get(instance, get.name)); // a field holding a callable
+    }
+    if (method.arity() != expr.args.size()) {
+      return callValue(expr, method.bind(instance)); // reports the error after evaluating the arguments
+    }
+    if (expr.tailCall) {
+      return new TailCall(method, instance, evaluateArgs(expr));
+    }
+
+    Environment frame = method.newFrame(this, instance);
     for (Expr arg : expr.args) {
-      args.add(evaluate(arg));
+      frame.define(evaluate(arg));
     }
+    return method.invoke(this, frame);
+  }
+
+  private Object callValue(Expr.Call expr, Object callee) {
+    List<Object> args = evaluateArgs(expr);
 
     if (!(callee instanceof LoxCallable)) {
       throw new RuntimeError(expr.parenthesis, String.format("Can only call functions and classes, not '%s'", callee));
@@ -147,19 +195,33 @@ class Interpreter implements Stmt.Visitor<Void>, Expr.Visitor<Object> {
           String.format("Wrong number of arguments: %s instead of %s", args.size(), fun.arity()));
     }
 
+    // a call in tail position is made by the LoxFunction that returns it
+    if (expr.tailCall && fun instanceof LoxFunction)
+      return new TailCall((LoxFunction) fun, ((LoxFunction) fun).receiver(), args);
     return fun.call(this, args);
   }
 
+  private List<Object> evaluateArgs(Expr.Call expr) {
+    List<Object> args = new ArrayList<>(expr.args.size());
+    for (Expr arg : expr.args) {
+      args.add(evaluate(arg));
+    }
+    return args;
+  }
+
   @Override
   public Object visitGetExpr(Expr.Get expr) {
     // Example: myObject.attribute with Expr [object][name]
-    Object obj = evaluate(expr.object);
+    return visitGetOn(expr, evaluate(expr.object));
+  }
+
+  private Object visitGetOn(Expr.Get expr, Object obj) {
     if (obj instanceof LoxInstance) {
-      return ((LoxInstance) obj).get(expr.name);
+      return expr.cache.get((LoxInstance) obj, expr.name);
     }
 
     throw new RuntimeError(expr.name,
-        String.format("Tried to access %s on %s but %s it not an instance object", expr.name, obj, obj));
+        String.format("Tried to access %s on %s but %s it not an instance object", expr.name.lexeme, obj, obj));
   }
 
   @Override
@@ -169,35 +231,49 @@ class Interpreter implements Stmt.Visitor<Void>, Expr.Visitor<Object> {
     Object obj = evaluate(expr.object);
     if (!(obj instanceof LoxInstance)) {
       throw new RuntimeError(expr.name,
-          String.format("Cannot set fields on variables (%s) that are not instances", expr.name));
+          String.format("Cannot set fields on variables (%s) that are not instances", expr.name.lexeme));
     }
 
     Object rvalue = evaluate(expr.value);
-    ((LoxInstance) obj).set(expr.name, rvalue);
+    expr.cache.set((LoxInstance) obj, expr.name, rvalue);
     return rvalue;
 
   }
 
   @Override
   public Object visitThisExpr(Expr.This expr) {
-    return lookupVariable(expr.keyword, expr);
+    return lookupVariable(expr.keyword, expr.depth, expr.slot);
   }
 
   @Override
-  public Void visitBlockStmt(Stmt.Block stmt) {
+  public Completion visitBlockStmt(Stmt.Block stmt) {
+    if (stmt.statements.isEmpty())
+      return Completion.NORMAL; // e.g. a branch or loop body the Optimizer emptied, it needs no frame
+
+    if (stmt.onStack) {
+      try {
+        return evaluateBlock(stmt.statements, stack.push(env, stmt.frameSize));
+      } finally {
+        stack.pop();
+      }
+    }
+
+    // a block no closure captures a local of reuses the frame its last run gave back
+    Environment blockEnv = stmt.reusable ? env.child(stmt.frameSize) : new Environment(env, stmt.frameSize);
 
     // eval the block passing the current env down (as a lookup for variables)
-    evaluateBlock(stmt.statements, new Environment(env));
-    return null;
+    Completion completion = evaluateBlock(stmt.statements, blockEnv);
+    if (stmt.reusable)
+      env.park(blockEnv);
+    return completion;
   }
 
   @Override
   public Object visitAssignExpr(Expr.Assign expr) {
     Object value = evaluate(expr.value);
 
-    Integer dist = locals.get(expr);
-    if (dist != null) {
-      env.assignAt(dist, expr.name, value);
+    if (expr.depth >= 0) {
+      env.assignAt(expr.depth, expr.slot, value);
     } else {
       globals.assign(expr.name, value);
     }
@@ -206,25 +282,51 @@ class Interpreter implements Stmt.Visitor<Void>, Expr.Visitor<Object> {
   }
 
   @Override
-  public Void visitVarStmt(Stmt.Var stmt) {
+  public Completion visitVarStmt(Stmt.Var stmt) {
     Object value = null;
     if (stmt.initializer != null) {
       value = evaluate(stmt.initializer);
     }
 
-    env.define(stmt.name.lexeme, value);
-    return null;
+    declare(stmt.name, value);
+    return Completion.NORMAL;
+  }
+
+  /*
+   * A module runs once, in the globals, when the first import of it is executed
+   */
+  @Override
+  public Completion visitImportStmt(Stmt.Import stmt) {
+    Module module = stmt.module;
+    if (module.executed)
+      return Completion.NORMAL;
+
+    module.executed = true;
+    for (Stmt s : module.statements) {
+      execStatement(s);
+    }
+    return Completion.NORMAL;
+  }
+
+  /*
+   * Top-level declarations become named globals, everything else takes the next slot of the current frame
+   */
+  private void declare(Token name, Object value) {
+    if (env == globals) {
+      globals.define(name.symbol, value);
+    } else {
+      env.define(value);
+    }
   }
 
   @Override
   public Object visitVariableExpr(Expr.Variable expr) {
-    return lookupVariable(expr.name, expr);
+    return lookupVariable(expr.name, expr.depth, expr.slot);
   }
 
-  private Object lookupVariable(Token name, Expr expr) {
-    Integer dist = locals.get(expr);
-    if (dist != null) {
-      return env.getAt(dist, name.lexeme);
+  private Object lookupVariable(Token name, int depth, int slot) {
+    if (depth >= 0) {
+      return env.getAt(depth, slot);
     } else {
       // if we don't find a distance, it must be a global variable
       return globals.get(name);
@@ -232,15 +334,15 @@ class Interpreter implements Stmt.Visitor<Void>, Expr.Visitor<Object> {
   }
 
   @Override
-  public Void visitExpressionStmt(Stmt.Expression stmt) {
+  public Completion visitExpressionStmt(Stmt.Expression stmt) {
     evaluate(stmt.expression);
-    return null; // we need to fulfill the signature
+    return Completion.NORMAL;
   }
 
   @Override
-  public Void visitPrintStmt(Stmt.Print stmt) {
+  public Completion visitPrintStmt(Stmt.Print stmt) {
     System.out.println(evaluate(stmt.expression));
-    return null;
+    return Completion.NORMAL;
   }
 
   @Override
@@ -255,6 +357,9 @@ class Interpreter implements Stmt.Visitor<Void>, Expr.Visitor<Object> {
 
   @Override
   public Object visitUnaryExpr(Expr.Unary expr) {
+    if (expr.numeric)
+      return -evaluateDouble(expr.right);
+
     Object right = evaluate(expr.right);
     // this is DYNAMIC typing - interpret the data in the 'correct' type in runtime
     switch (expr.operator.type) {
@@ -272,6 +377,9 @@ class Interpreter implements Stmt.Visitor<Void>, Expr.Visitor<Object> {
 
   @Override
   public Object visitBinaryExpr(Expr.Binary expr) {
+    if (expr.numeric)
+      return evaluateNumeric(expr);
+
     Object left = evaluate(expr.left);
     Object right = evaluate(expr.right);
 
@@ -327,15 +435,66 @@ class Interpreter implements Stmt.Visitor<Void>, Expr.Visitor<Object> {
     return expr.accept(this); // will call this Visitor again with the appropriate type
   }
 
-  void evaluateBlock(List<Stmt> statements, Environment blockEnv) {
+  /*
+   * Binary expression whose operands the NumberInference found to be numbers, only the result gets boxed
+   */
+  private Object evaluateNumeric(Expr.Binary expr) {
+    switch (expr.operator.type) {
+      case GREATER:
+        return evaluateDouble(expr.left) > evaluateDouble(expr.right);
+      case GREATER_EQUAL:
+        return evaluateDouble(expr.left) >= evaluateDouble(expr.right);
+      case LESS:
+        return evaluateDouble(expr.left) < evaluateDouble(expr.right);
+      case LESS_EQUAL:
+        return evaluateDouble(expr.left) <= evaluateDouble(expr.right);
+      default:
+        return evaluateDouble(expr);
+    }
+  }
+
+  /*
+   * Evaluate an expression that yields a number as a primitive double. Arithmetic on operands marked as numeric
+   * by the NumberInference is computed without boxing, everything else is evaluated as usual and unboxed.
+   */
+  double evaluateDouble(Expr expr) {
+    if (expr instanceof Expr.Binary && ((Expr.Binary) expr).numeric) {
+      Expr.Binary binary = (Expr.Binary) expr;
+      switch (binary.operator.type) {
+        case MINUS:
+          return evaluateDouble(binary.left) - evaluateDouble(binary.right);
+        case SLASH:
+          return evaluateDouble(binary.left) / evaluateDouble(binary.right);
+        case STAR:
+          return evaluateDouble(binary.left) * evaluateDouble(binary.right);
+        case PLUS:
+          return evaluateDouble(binary.left) + evaluateDouble(binary.right);
+        default:
+          break; // comparisons are not numbers
+      }
+    } else if (expr instanceof Expr.Unary && ((Expr.Unary) expr).numeric) {
+      return -evaluateDouble(((Expr.Unary) expr).right);
+    } else if (expr instanceof Expr.Grouping) {
+      return evaluateDouble(((Expr.Grouping) expr).expression);
+    } else if (expr instanceof Expr.Variable && ((Expr.Variable) expr).numeric) {
+      Expr.Variable variable = (Expr.Variable) expr;
+      return (double) env.getAt(variable.depth, variable.slot);
+    }
+
+    return (double) evaluate(expr);
+  }
+
+  Completion evaluateBlock(List<Stmt> statements, Environment blockEnv) {
     Environment prevEnv = this.env;
 
     // execute all statements in this block using the given environment
     try {
       this.env = blockEnv; // this env has a ref to the parent (prev) env
       for (Stmt stmt : statements) {
-        execStatement(stmt);
+        if (execStatement(stmt) == Completion.RETURN)
+          return Completion.RETURN;
       }
+      return Completion.NORMAL;
       // then revert back to the original environment
     } finally {
       this.env = prevEnv;
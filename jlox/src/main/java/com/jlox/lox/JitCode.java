@@ -0,0 +1,9 @@
+package com.jlox.lox;
+
+/*
+ * A function body the JitCompiler turned into JVM bytecode. It runs in the frame LoxFunction.newFrame() created
+ * and returns the value of the function, a 'return' without value or falling off the end returns null.
+ */
+interface JitCode {
+  Object run(Interpreter interpreter, Environment frame);
+}
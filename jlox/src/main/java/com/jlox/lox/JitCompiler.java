@@ -0,0 +1,661 @@
+package com.jlox.lox;
+
+import com.jlox.jit.ClassFileException;
+import com.jlox.jit.ClassFileWriter;
+import com.jlox.jit.Code;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Compiles the body of a hot function to JVM bytecode and loads it as a hidden class, so HotSpot can
+ * optimize it like any other Java method. Locals of the function live in JVM local variables, the ones
+ * the NumberInference proved to be numbers as primitive doubles. Variables of enclosing functions and globals
+ * are still read from the environments, everything that is not arithmetic goes through JitRuntime.
+ *
+ * Functions that declare functions or classes are not compiled (their frame could be captured),
+ * neither is anything that does not fit into a class file. Those keep running in the interpreter.
+ */
+class JitCompiler implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+
+  private static final String OBJECT = "java/lang/Object";
+  private static final String DOUBLE = "java/lang/Double";
+  private static final String BOOLEAN = "java/lang/Boolean";
+  private static final String TOKEN = "com/jlox/lox/Token";
+  private static final String ENVIRONMENT = "com/jlox/lox/Environment";
+  private static final String PROPERTY_CACHE = "com/jlox/lox/PropertyCache";
+  private static final String EXPR_NODE = "com/jlox/lox/ExprNode";
+  private static final String RUNTIME = "com/jlox/lox/JitRuntime";
+
+  private static final String BINARY = "(Ljava/lang/Object;Ljava/lang/Object;Lcom/jlox/lox/Token;)Ljava/lang/Object;";
+  private static final String COMPARE = "(DD)Ljava/lang/Object;";
+
+  // slots of the parameters of JitCode.run()
+  private static final int INTERPRETER_SLOT = 1;
+  private static final int FRAME_SLOT = 2;
+
+  private static int compiledCount = 0; // keeps the names of the generated classes apart
+
+  /*
+   * Thrown for code the JIT does not handle
+   */
+  private static class Unsupported extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    Unsupported(String message) {
+      super(message, null, false, false);
+    }
+  }
+
+  /*
+   * A local of the compiled function and the JVM local variable it lives in
+   */
+  private static class Local {
+    final int slot;
+    final boolean numeric; // stored as a primitive double
+    final Token declaration;
+
+    Local(int slot, boolean numeric, Token declaration) {
+      this.slot = slot;
+      this.numeric = numeric;
+      this.declaration = declaration;
+    }
+  }
+
+  private final Stmt.Fun function;
+  private final boolean isMethod;
+  private final Interpreter interpreter;
+  private final String className;
+  private final Set<Token> numericLocals; // declarations of locals to keep as doubles
+  private final Set<Token> numericReads = Collections.newSetFromMap(new IdentityHashMap<Token, Boolean>());
+  private final List<Object> constants = new ArrayList<>();
+  private final List<String> constantTypes = new ArrayList<>();
+  private final Map<Object, Integer> constantIndex = new IdentityHashMap<>();
+  private final List<Map<Symbol, Local>> scopes = new ArrayList<>(); // mirrors the scopes of the Resolver
+  private int nextSlot = FRAME_SLOT + 1;
+  private ClassFileWriter classFile;
+  private Code code;
+
+  private JitCompiler(Stmt.Fun function, boolean isMethod, Interpreter interpreter, Set<Token> numericLocals) {
+    this.function = function;
+    this.isMethod = isMethod;
+    this.interpreter = interpreter;
+    this.numericLocals = numericLocals;
+    this.className = String.format("com/jlox/lox/JitCode$%s$%d", function.name.lexeme, compiledCount);
+  }
+
+  /*
+   * Returns the compiled function or null if it has to stay in the interpreter
+   */
+  static JitCode compile(Stmt.Fun function, boolean isMethod, Interpreter interpreter) {
+    try {
+      // the first pass only finds out which locals are read as numbers
+      JitCompiler scan = new JitCompiler(function, isMethod, interpreter, Collections.<Token>emptySet());
+      scan.generate();
+
+      JitCompiler compiler = new JitCompiler(function, isMethod, interpreter, scan.numericReads);
+      JitCode compiled = compiler.define(compiler.generate());
+      compiledCount++;
+      return compiled; // the TierManager reports the promotion
+    } catch (Unsupported | ClassFileException e) {
+      if (interpreter.debugMode) {
+        System.out.println(String.format("Can't compile %s: %s", function.name.lexeme, e.getMessage()));
+      }
+      return null;
+    }
+  }
+
+  private JitCode define(byte[] bytes) {
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClassWithClassData(bytes, constants.toArray(),
+          true);
+      return (JitCode) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+    } catch (Throwable e) {
+      // e.g. a JVM without hidden classes, the interpreter keeps running the function
+      if (interpreter.debugMode) {
+        System.out.println(String.format("Can't load compiled %s: %s", function.name.lexeme, e));
+      }
+      return null;
+    }
+  }
+
+  private byte[] generate() {
+    classFile = new ClassFileWriter(className, OBJECT, "com/jlox/lox/JitCode");
+
+    Code constructor = new Code(classFile, 1);
+    constructor.aload(0);
+    constructor.invokespecial(OBJECT, "<init>", "()V");
+    constructor.op(Code.RETURN, 0);
+    classFile.addMethod(ClassFileWriter.ACC_PUBLIC, "<init>", "()V", constructor);
+
+    code = new Code(classFile, FRAME_SLOT + 1);
+    code.line(function.name.line);
+
+    // the caller already put 'this' and the arguments into the frame
+    scopes.add(new HashMap<Symbol, Local>());
+    int frameSlot = 0;
+    if (isMethod)
+      loadParameter(Symbol.THIS, null, frameSlot++);
+    for (Token param : function.params) {
+      loadParameter(param.symbol, param, frameSlot++);
+    }
+
+    for (Stmt stmt : function.body) {
+      stmt.accept(this);
+    }
+    code.op(Code.ACONST_NULL, 1);
+    code.op(Code.ARETURN, -1);
+    classFile.addMethod(ClassFileWriter.ACC_PUBLIC, "run",
+        "(Lcom/jlox/lox/Interpreter;Lcom/jlox/lox/Environment;)Ljava/lang/Object;", code);
+
+    defineConstants();
+    return classFile.toByteArray();
+  }
+
+  /*
+   * Tokens, caches and environments the code refers to become static final fields, filled from the class data
+   * of the hidden class. HotSpot treats them as constants.
+   */
+  private void defineConstants() {
+    Code init = new Code(classFile, 0);
+    init.invokestatic("java/lang/invoke/MethodHandles", "lookup", "()Ljava/lang/invoke/MethodHandles$Lookup;");
+    init.sconst("_");
+    init.classConst("[Ljava/lang/Object;");
+    init.invokestatic("java/lang/invoke/MethodHandles", "classData",
+        "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;");
+    init.checkcast("[Ljava/lang/Object;");
+    init.astore(0);
+
+    for (int i = 0; i < constants.size(); i++) {
+      String descriptor = "L" + constantTypes.get(i) + ";";
+      classFile.addField(ClassFileWriter.ACC_PRIVATE | ClassFileWriter.ACC_STATIC | ClassFileWriter.ACC_FINAL,
+          "k" + i, descriptor);
+      init.aload(0);
+      init.iconst(i);
+      init.op(Code.AALOAD, -1);
+      init.checkcast(constantTypes.get(i));
+      init.putstatic(className, "k" + i, descriptor);
+    }
+
+    init.op(Code.RETURN, 0);
+    classFile.addMethod(ClassFileWriter.ACC_STATIC, "<clinit>", "()V", init);
+  }
+
+  private void loadParameter(Symbol name, Token declaration, int frameSlot) {
+    code.aload(FRAME_SLOT);
+    code.iconst(0);
+    code.iconst(frameSlot);
+    code.invokevirtual(ENVIRONMENT, "getAt", "(II)Ljava/lang/Object;");
+    int slot = nextSlot++;
+    code.astore(slot);
+    scopes.get(0).put(name, new Local(slot, false, declaration));
+  }
+
+  private void loadConstant(Object value, String type) {
+    Integer index = constantIndex.get(value);
+    if (index == null) {
+      index = constants.size();
+      constants.add(value);
+      constantTypes.add(type);
+      constantIndex.put(value, index);
+    }
+    code.getstatic(className, "k" + index, "L" + type + ";");
+  }
+
+  private void box() {
+    code.invokestatic(DOUBLE, "valueOf", "(D)Ljava/lang/Double;");
+  }
+
+  private void unbox() {
+    code.checkcast(DOUBLE);
+    code.invokevirtual(DOUBLE, "doubleValue", "()D");
+  }
+
+  private void compile(Expr expr) {
+    expr.accept(this);
+  }
+
+  /*
+   * Leaves the value of an expression that can only be a number as a primitive double on the stack
+   */
+  private void compileDouble(Expr expr) {
+    if (expr instanceof Expr.Grouping) {
+      compileDouble(((Expr.Grouping) expr).expression);
+      return;
+    }
+    if (expr instanceof Expr.Literal && ((Expr.Literal) expr).value instanceof Double) {
+      code.dconst((double) ((Expr.Literal) expr).value);
+      return;
+    }
+    if (expr instanceof Expr.Binary && ((Expr.Binary) expr).numeric) {
+      Expr.Binary binary = (Expr.Binary) expr;
+      int opcode = arithmeticOpcode(binary.operator.type);
+      if (opcode >= 0) {
+        compileDouble(binary.left);
+        compileDouble(binary.right);
+        code.op(opcode, -2);
+        return;
+      }
+    }
+    if (expr instanceof Expr.Unary && ((Expr.Unary) expr).numeric) {
+      compileDouble(((Expr.Unary) expr).right);
+      code.op(Code.DNEG, 0);
+      return;
+    }
+    if (expr instanceof Expr.Variable) {
+      Expr.Variable variable = (Expr.Variable) expr;
+      Local local = lookup(variable.name, variable.depth);
+      if (local != null && local.numeric) {
+        numericReads.add(local.declaration);
+        code.dload(local.slot);
+        return;
+      }
+    }
+
+    compile(expr);
+    unbox();
+  }
+
+  private static int arithmeticOpcode(TokenType type) {
+    switch (type) {
+      case PLUS:
+        return Code.DADD;
+      case MINUS:
+        return Code.DSUB;
+      case STAR:
+        return Code.DMUL;
+      case SLASH:
+        return Code.DDIV;
+      default:
+        return -1;
+    }
+  }
+
+  /*
+   * Jumps to 'whenFalse' if the condition is not truthy, comparisons of numbers are done without boxing
+   */
+  private void compileCondition(Expr cond, Code.Label whenFalse) {
+    while (cond instanceof Expr.Grouping) {
+      cond = ((Expr.Grouping) cond).expression;
+    }
+
+    if (cond instanceof Expr.Binary && ((Expr.Binary) cond).numeric) {
+      Expr.Binary binary = (Expr.Binary) cond;
+      int compare = -1;
+      int jump = -1;
+      switch (binary.operator.type) {
+        case LESS:
+          compare = Code.DCMPG;
+          jump = Code.IFGE;
+          break;
+        case LESS_EQUAL:
+          compare = Code.DCMPG;
+          jump = Code.IFGT;
+          break;
+        case GREATER:
+          compare = Code.DCMPL;
+          jump = Code.IFLE;
+          break;
+        case GREATER_EQUAL:
+          compare = Code.DCMPL;
+          jump = Code.IFLT;
+          break;
+        default:
+          break;
+      }
+
+      if (compare >= 0) {
+        code.line(binary.operator.line);
+        compileDouble(binary.left);
+        compileDouble(binary.right);
+        code.op(compare, -3);
+        code.jump(jump, whenFalse);
+        return;
+      }
+    }
+
+    compile(cond);
+    code.invokestatic(EXPR_NODE, "isTruthy", "(Ljava/lang/Object;)Z");
+    code.jump(Code.IFEQ, whenFalse);
+  }
+
+  private Local lookup(Token name, int depth) {
+    if (depth < 0 || depth >= scopes.size())
+      return null;
+    return scopes.get(scopes.size() - 1 - depth).get(name.symbol);
+  }
+
+  private void loadVariable(Token name, int depth, int slot, boolean numericRead) {
+    Local local = lookup(name, depth);
+    if (local != null) {
+      if (numericRead)
+        numericReads.add(local.declaration);
+      if (local.numeric) {
+        code.dload(local.slot);
+        box();
+      } else {
+        code.aload(local.slot);
+      }
+    } else if (depth >= 0) {
+      // a variable of an enclosing function, the frame is the innermost environment at runtime
+      code.aload(FRAME_SLOT);
+      code.iconst(depth - scopes.size() + 1);
+      code.iconst(slot);
+      code.invokevirtual(ENVIRONMENT, "getAt", "(II)Ljava/lang/Object;");
+    } else {
+      loadConstant(interpreter.globals, ENVIRONMENT);
+      loadConstant(name, TOKEN);
+      code.invokevirtual(ENVIRONMENT, "get", "(Lcom/jlox/lox/Token;)Ljava/lang/Object;");
+    }
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    scopes.add(new HashMap<Symbol, Local>());
+    for (Stmt statement : stmt.statements) {
+      statement.accept(this);
+    }
+    scopes.remove(scopes.size() - 1);
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    throw new Unsupported(String.format("declares class %s", stmt.name.lexeme));
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    compile(stmt.expression);
+    code.op(Code.POP, -1);
+    return null;
+  }
+
+  @Override
+  public Void visitFunStmt(Stmt.Fun stmt) {
+    throw new Unsupported(String.format("declares function %s", stmt.name.lexeme));
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    Code.Label elseBranch = new Code.Label();
+    compileCondition(stmt.cond, elseBranch);
+    stmt.thenBranch.accept(this);
+
+    if (stmt.elseBranch == null) {
+      code.place(elseBranch);
+    } else {
+      Code.Label end = new Code.Label();
+      code.jump(Code.GOTO, end);
+      code.place(elseBranch);
+      stmt.elseBranch.accept(this);
+      code.place(end);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    Code.Label loop = new Code.Label();
+    Code.Label end = new Code.Label();
+    code.place(loop);
+    compileCondition(stmt.cond, end);
+    stmt.body.accept(this);
+    code.jump(Code.GOTO, loop);
+    code.place(end);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    compile(stmt.expression);
+    code.invokestatic(RUNTIME, "print", "(Ljava/lang/Object;)V");
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    code.line(stmt.keyword.line);
+    if (stmt.value == null) {
+      code.op(Code.ACONST_NULL, 1);
+    } else {
+      compile(stmt.value);
+    }
+    code.op(Code.ARETURN, -1);
+    return null;
+  }
+
+  @Override
+  public Void visitImportStmt(Stmt.Import stmt) {
+    throw new Unsupported(String.format("imports %s", stmt.path.lexeme));
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    code.line(stmt.name.line);
+    boolean numeric = numericLocals.contains(stmt.name);
+    int slot = nextSlot;
+    nextSlot += numeric ? 2 : 1;
+
+    if (numeric) {
+      compileDouble(stmt.initializer);
+      code.dstore(slot);
+    } else {
+      if (stmt.initializer == null) {
+        code.op(Code.ACONST_NULL, 1);
+      } else {
+        compile(stmt.initializer);
+      }
+      code.astore(slot);
+    }
+
+    scopes.get(scopes.size() - 1).put(stmt.name.symbol, new Local(slot, numeric, stmt.name));
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    code.line(expr.name.line);
+    Local local = lookup(expr.name, expr.depth);
+    if (local != null && local.numeric) {
+      compileDouble(expr.value);
+      code.op(Code.DUP2, 2);
+      code.dstore(local.slot);
+      box();
+    } else if (local != null) {
+      compile(expr.value);
+      code.op(Code.DUP, 1);
+      code.astore(local.slot);
+    } else if (expr.depth >= 0) {
+      code.aload(FRAME_SLOT);
+      code.iconst(expr.depth - scopes.size() + 1);
+      code.iconst(expr.slot);
+      compile(expr.value);
+      code.invokestatic(RUNTIME, "assignAt", "(Lcom/jlox/lox/Environment;IILjava/lang/Object;)Ljava/lang/Object;");
+    } else {
+      loadConstant(interpreter.globals, ENVIRONMENT);
+      loadConstant(expr.name, TOKEN);
+      compile(expr.value);
+      code.invokestatic(RUNTIME, "assignGlobal",
+          "(Lcom/jlox/lox/Environment;Lcom/jlox/lox/Token;Ljava/lang/Object;)Ljava/lang/Object;");
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    code.line(expr.operator.line);
+    if (expr.numeric) {
+      if (arithmeticOpcode(expr.operator.type) >= 0) {
+        compileDouble(expr);
+        box();
+        return null;
+      }
+
+      compileDouble(expr.left);
+      compileDouble(expr.right);
+      code.invokestatic(RUNTIME, compareHelper(expr.operator.type), COMPARE);
+      return null;
+    }
+
+    compile(expr.left);
+    compile(expr.right);
+    switch (expr.operator.type) {
+      case EQUAL_EQUAL:
+        code.invokestatic(RUNTIME, "equal", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+        return null;
+      case BANG_EQUAL:
+        code.invokestatic(RUNTIME, "notEqual", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
+        return null;
+      case PLUS:
+        return binaryHelper("add", expr);
+      case MINUS:
+        return binaryHelper("subtract", expr);
+      case STAR:
+        return binaryHelper("multiply", expr);
+      case SLASH:
+        return binaryHelper("divide", expr);
+      default:
+        return binaryHelper(compareHelper(expr.operator.type), expr);
+    }
+  }
+
+  private Void binaryHelper(String name, Expr.Binary expr) {
+    loadConstant(expr.operator, TOKEN);
+    code.invokestatic(RUNTIME, name, BINARY);
+    return null;
+  }
+
+  private static String compareHelper(TokenType type) {
+    switch (type) {
+      case GREATER:
+        return "greater";
+      case GREATER_EQUAL:
+        return "greaterEqual";
+      case LESS:
+        return "less";
+      case LESS_EQUAL:
+        return "lessEqual";
+      default:
+        throw new Unsupported(String.format("unknown operator %s", type));
+    }
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    compile(expr.callee);
+
+    code.iconst(expr.args.size());
+    code.anewarray(OBJECT);
+    for (int i = 0; i < expr.args.size(); i++) {
+      code.op(Code.DUP, 1);
+      code.iconst(i);
+      compile(expr.args.get(i));
+      code.op(Code.AASTORE, -3);
+    }
+
+    code.line(expr.parenthesis.line);
+    code.aload(INTERPRETER_SLOT);
+    loadConstant(expr.parenthesis, TOKEN);
+    code.invokestatic(RUNTIME, expr.tailCall ? "tailCall" : "call",
+        "(Ljava/lang/Object;[Ljava/lang/Object;Lcom/jlox/lox/Interpreter;Lcom/jlox/lox/Token;)Ljava/lang/Object;");
+    return null;
+  }
+
+  @Override
+  public Void visitGetExpr(Expr.Get expr) {
+    compile(expr.object);
+    code.line(expr.name.line);
+    loadConstant(expr.cache, PROPERTY_CACHE);
+    loadConstant(expr.name, TOKEN);
+    code.invokestatic(RUNTIME, "get",
+        "(Ljava/lang/Object;Lcom/jlox/lox/PropertyCache;Lcom/jlox/lox/Token;)Ljava/lang/Object;");
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    compile(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    if (expr.value == null) {
+      code.op(Code.ACONST_NULL, 1);
+    } else if (expr.value instanceof Boolean) {
+      code.getstatic(BOOLEAN, (Boolean) expr.value ? "TRUE" : "FALSE", "Ljava/lang/Boolean;");
+    } else if (expr.value instanceof String) {
+      code.sconst((String) expr.value);
+    } else if (expr.value instanceof Double) {
+      loadConstant(expr.value, DOUBLE);
+    } else {
+      throw new Unsupported(String.format("literal %s", expr.value));
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    Code.Label end = new Code.Label();
+    compile(expr.left);
+    code.op(Code.DUP, 1);
+    code.invokestatic(EXPR_NODE, "isTruthy", "(Ljava/lang/Object;)Z");
+    // 'or' is done with a truthy left side, 'and' with a falsy one
+    code.jump(expr.operator.type == TokenType.OR ? Code.IFNE : Code.IFEQ, end);
+    code.op(Code.POP, -1);
+    compile(expr.right);
+    code.place(end);
+    return null;
+  }
+
+  @Override
+  public Void visitSetExpr(Expr.Set expr) {
+    compile(expr.object);
+    code.line(expr.name.line);
+    loadConstant(expr.name, TOKEN);
+    code.invokestatic(RUNTIME, "checkSettable", "(Ljava/lang/Object;Lcom/jlox/lox/Token;)Ljava/lang/Object;");
+    compile(expr.value);
+    loadConstant(expr.cache, PROPERTY_CACHE);
+    loadConstant(expr.name, TOKEN);
+    code.invokestatic(RUNTIME, "set",
+        "(Ljava/lang/Object;Ljava/lang/Object;Lcom/jlox/lox/PropertyCache;Lcom/jlox/lox/Token;)Ljava/lang/Object;");
+    return null;
+  }
+
+  @Override
+  public Void visitThisExpr(Expr.This expr) {
+    loadVariable(expr.keyword, expr.depth, expr.slot, false);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    code.line(expr.operator.line);
+    if (expr.operator.type == TokenType.BANG) {
+      compile(expr.right);
+      code.invokestatic(RUNTIME, "not", "(Ljava/lang/Object;)Ljava/lang/Object;");
+    } else if (expr.numeric) {
+      compileDouble(expr);
+      box();
+    } else {
+      compile(expr.right);
+      loadConstant(expr.operator, TOKEN);
+      code.invokestatic(RUNTIME, "negate", "(Ljava/lang/Object;Lcom/jlox/lox/Token;)Ljava/lang/Object;");
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    code.line(expr.name.line);
+    loadVariable(expr.name, expr.depth, expr.slot, expr.numeric);
+    return null;
+  }
+}
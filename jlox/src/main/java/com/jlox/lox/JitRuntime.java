@@ -0,0 +1,162 @@
+package com.jlox.lox;
+
+import java.util.Arrays;
+
+/*
+ * Operations that code compiled by the JitCompiler calls into for everything that is not plain arithmetic
+ * on numbers. They behave exactly like the Interpreter, including the RuntimeErrors they report.
+ */
+final class JitRuntime {
+  private JitRuntime() {
+  }
+
+  static Object add(Object left, Object right, Token operator) {
+    if (left instanceof Double && right instanceof Double) {
+      return (double) left + (double) right;
+    } else if (left instanceof String && right instanceof String) {
+      return (String) left + (String) right;
+    }
+    throw new RuntimeError(operator,
+        String.format("Operands for '+' must be two numbers or two strings but were: %s and %s", left, right));
+  }
+
+  static Object subtract(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left - (double) right;
+  }
+
+  static Object multiply(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left * (double) right;
+  }
+
+  static Object divide(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left / (double) right;
+  }
+
+  static Object greater(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left > (double) right;
+  }
+
+  static Object greaterEqual(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left >= (double) right;
+  }
+
+  static Object less(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left < (double) right;
+  }
+
+  static Object lessEqual(Object left, Object right, Token operator) {
+    checkNumberOperands(operator, left, right);
+    return (double) left <= (double) right;
+  }
+
+  // comparisons of operands that are known to be numbers
+
+  static Object greater(double left, double right) {
+    return left > right;
+  }
+
+  static Object greaterEqual(double left, double right) {
+    return left >= right;
+  }
+
+  static Object less(double left, double right) {
+    return left < right;
+  }
+
+  static Object lessEqual(double left, double right) {
+    return left <= right;
+  }
+
+  static Object equal(Object left, Object right) {
+    return ExprNode.isEqual(left, right);
+  }
+
+  static Object notEqual(Object left, Object right) {
+    return !ExprNode.isEqual(left, right);
+  }
+
+  static Object negate(Object operand, Token operator) {
+    if (!(operand instanceof Double)) {
+      throw new RuntimeError(operator, String.format("Operand must be a number but was %s", operand));
+    }
+    return -(double) operand;
+  }
+
+  static Object not(Object operand) {
+    return !ExprNode.isTruthy(operand);
+  }
+
+  static Object assignAt(Environment frame, int depth, int slot, Object value) {
+    frame.assignAt(depth, slot, value);
+    return value;
+  }
+
+  static Object assignGlobal(Environment globals, Token name, Object value) {
+    globals.assign(name, value);
+    return value;
+  }
+
+  static Object call(Object callee, Object[] args, Interpreter interpreter, Token parenthesis) {
+    return checkCallable(callee, args, parenthesis).call(interpreter, Arrays.asList(args));
+  }
+
+  /*
+   * A call in tail position, the compiled function returns the TailCall to LoxFunction.invoke()
+   */
+  static Object tailCall(Object callee, Object[] args, Interpreter interpreter, Token parenthesis) {
+    LoxCallable fun = checkCallable(callee, args, parenthesis);
+    if (fun instanceof LoxFunction)
+      return new TailCall((LoxFunction) fun, ((LoxFunction) fun).receiver(), Arrays.asList(args));
+    return fun.call(interpreter, Arrays.asList(args));
+  }
+
+  private static LoxCallable checkCallable(Object callee, Object[] args, Token parenthesis) {
+    if (!(callee instanceof LoxCallable)) {
+      throw new RuntimeError(parenthesis, String.format("Can only call functions and classes, not '%s'", callee));
+    }
+
+    LoxCallable fun = (LoxCallable) callee;
+    if (args.length != fun.arity()) {
+      throw new RuntimeError(parenthesis,
+          String.format("Wrong number of arguments: %s instead of %s", args.length, fun.arity()));
+    }
+    return fun;
+  }
+
+  static Object get(Object obj, PropertyCache cache, Token name) {
+    if (obj instanceof LoxInstance) {
+      return cache.get((LoxInstance) obj, name);
+    }
+    throw new RuntimeError(name,
+        String.format("Tried to access %s on %s but %s it not an instance object", name.lexeme, obj, obj));
+  }
+
+  static Object checkSettable(Object obj, Token name) {
+    if (!(obj instanceof LoxInstance)) {
+      throw new RuntimeError(name,
+          String.format("Cannot set fields on variables (%s) that are not instances", name.lexeme));
+    }
+    return obj;
+  }
+
+  static Object set(Object obj, Object value, PropertyCache cache, Token name) {
+    cache.set((LoxInstance) obj, name, value);
+    return value;
+  }
+
+  static void print(Object value) {
+    System.out.println(value);
+  }
+
+  private static void checkNumberOperands(Token operator, Object left, Object right) {
+    if (left instanceof Double && right instanceof Double)
+      return;
+    throw new RuntimeError(operator, String.format("Operands must be numbers but were %s and %s", left, right));
+  }
+}
@@ -0,0 +1,73 @@
+package com.jlox.lox;
+
+/*
+ * Turns ranges of the Scanner's buffer into Strings, every spelling only once. Names and numbers repeat
+ * throughout a program, so most lexemes are found in the table without creating a String for them.
+ *
+ * Open addressing with linear probing, the hashes are the same as String.hashCode so they are computed
+ * from the chars before there is a String.
+ */
+class LexemeTable {
+  private String[] entries = new String[256];
+  private int[] hashes = new int[256];
+  private int size = 0;
+
+  String intern(char[] chars, int offset, int length) {
+    int hash = 0;
+    for (int i = offset; i < offset + length; i++) {
+      hash = 31 * hash + chars[i];
+    }
+
+    int mask = entries.length - 1;
+    int index = spread(hash) & mask;
+    for (String entry = entries[index]; entry != null; entry = entries[index]) {
+      if (hashes[index] == hash && matches(entry, chars, offset, length))
+        return entry;
+      index = (index + 1) & mask;
+    }
+
+    String lexeme = new String(chars, offset, length);
+    entries[index] = lexeme;
+    hashes[index] = hash;
+    if (++size * 2 > entries.length) {
+      grow();
+    }
+    return lexeme;
+  }
+
+  private static boolean matches(String entry, char[] chars, int offset, int length) {
+    if (entry.length() != length)
+      return false;
+    for (int i = 0; i < length; i++) {
+      if (entry.charAt(i) != chars[offset + i])
+        return false;
+    }
+    return true;
+  }
+
+  private void grow() {
+    String[] oldEntries = entries;
+    int[] oldHashes = hashes;
+    entries = new String[oldEntries.length * 2];
+    hashes = new int[oldHashes.length * 2];
+
+    int mask = entries.length - 1;
+    for (int i = 0; i < oldEntries.length; i++) {
+      if (oldEntries[i] == null)
+        continue;
+      int index = spread(oldHashes[i]) & mask;
+      while (entries[index] != null) {
+        index = (index + 1) & mask;
+      }
+      entries[index] = oldEntries[i];
+      hashes[index] = oldHashes[i];
+    }
+  }
+
+  /*
+   * The table only looks at the low bits of a hash, mix the high ones in
+   */
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+}
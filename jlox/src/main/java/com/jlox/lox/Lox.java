@@ -3,18 +3,44 @@ package com.jlox.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import com.jlox.vm.ObjFunction;
+import com.jlox.vm.VM;
+import com.jlox.vm.VMError;
+
 public class Lox {
 
+  static final String VERSION = "1.0"; // part of the key of cached programs
+
+  /*
+   * The engines that can execute a program, selected with --engine=<name>
+   */
+  private enum Engine {
+    INTERPRETER,
+    CLOSURE,
+    VM
+  }
+
   private static boolean debugMode = false;
+  private static Engine engine = Engine.INTERPRETER;
+  private static boolean flatAst = false; // keep the parsed program in a FlatAst, selected with --ast=flat
+  private static ProgramCache cache = null; // set with --cache=<directory>
+  private static String prelude = null; // runs before the script or prompt, set with --prelude=<file>
+  private static Path snapshot = null; // globals after the prelude ran, set with --snapshot=<file>
   static boolean hadError = false;
   static boolean hadRuntimeError = false;
 
   private static Interpreter interpreter = new Interpreter();
+  private static VM vm = new VM();
+  private static ModuleLoader modules = new ModuleLoader(); // one for the whole session, every file loads once
 
   public static void main(String[] args) throws IOException {
 
@@ -26,23 +52,74 @@ public class Lox {
       System.out.println("Debug mode activated.");
     }
 
+    List<String> scripts = new ArrayList<>();
+    for (String arg : args) {
+      if (arg.startsWith("--engine=")) {
+        engine = parseEngine(arg.substring("--engine=".length()));
+      } else if (arg.equals("--ast=flat")) {
+        flatAst = true;
+      } else if (arg.equals("--ast=tree")) {
+        flatAst = false;
+      } else if (arg.startsWith("--cache=")) {
+        cache = new ProgramCache(Paths.get(arg.substring("--cache=".length())));
+        modules.cache = cache;
+      } else if (arg.startsWith("--prelude=")) {
+        prelude = arg.substring("--prelude=".length());
+      } else if (arg.startsWith("--snapshot=")) {
+        snapshot = Paths.get(arg.substring("--snapshot=".length()));
+      } else {
+        scripts.add(arg);
+      }
+    }
+
     System.out.println("☀☀☀ Starting the Lox Interpeter ☀☀☀");
-    if (args.length > 1) {
-      System.out.println("Usage: jlox [script]");
+    if (scripts.size() > 1) {
+      System.out.println("Usage: jlox [--engine=interpreter|closure|vm] [--ast=tree|flat] [--cache=dir] [--prelude=file [--snapshot=file]] [script]");
+      System.exit(64);
+    } else if (flatAst && engine != Engine.INTERPRETER) {
+      System.out.println("The flat AST only runs on the interpreter engine");
+      System.exit(64);
+    } else if (snapshot != null && (prelude == null || engine == Engine.VM)) {
+      System.out.println("A snapshot needs a prelude and the interpreter or closure engine");
       System.exit(64);
-    } else if (args.length == 1) {
-      runFile(args[0]);
+    }
+
+    if (prelude != null) {
+      runPrelude(prelude);
+    }
+    if (scripts.size() == 1) {
+      runFile(scripts.get(0));
     } else {
       runPrompt();
     }
   }
 
+  private static Engine parseEngine(String name) {
+    for (Engine e : Engine.values()) {
+      if (e.name().equalsIgnoreCase(name))
+        return e;
+    }
+
+    System.out.println(String.format("Unknown engine '%s'", name));
+    System.exit(64);
+    return null;
+  }
+
   /*
    * Run a Lox file from path
    */
   private static void runFile(String path) throws IOException {
-    byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, Charset.defaultCharset()));
+    Path file = Paths.get(path).toAbsolutePath();
+    if (cache != null) {
+      runCached(file);
+    } else {
+      // the file is scanned while it is read and parsed while it is scanned
+      try (MappedFileReader source = new MappedFileReader(file)) {
+        run(new Parser(new Scanner(source)), file.getParent());
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+    }
 
     if (hadError)
       System.exit(65);
@@ -50,6 +127,32 @@ public class Lox {
       System.exit(70);
   }
 
+  /*
+   * Runs the prelude into the globals or, if the snapshot was taken after running the same prelude, restores them
+   * from it. A missing or outdated snapshot is written once the prelude ran without errors.
+   */
+  private static void runPrelude(String path) throws IOException {
+    if (snapshot == null) {
+      runFile(path);
+      return;
+    }
+
+    byte[] source = Files.readAllBytes(Paths.get(path));
+    try {
+      if (Snapshot.restore(interpreter, source, snapshot))
+        return;
+    } catch (IOException | RuntimeException e) {
+      System.err.println(String.format("Warning: Ignoring broken snapshot '%s'", snapshot));
+    }
+
+    runFile(path); // exits if the prelude had errors
+    try {
+      Snapshot.write(interpreter, source, snapshot);
+    } catch (IOException e) {
+      System.err.println(String.format("Warning: Can't write the snapshot: %s", e.getMessage()));
+    }
+  }
+
   private static void runPrompt() throws IOException {
     InputStreamReader input = new InputStreamReader(System.in);
     BufferedReader reader = new BufferedReader(input);
@@ -75,31 +178,162 @@ public class Lox {
   }
 
   private static void run(String loxSource) {
-    Scanner scanner = new Scanner(loxSource);
-    List<Token> tokens = scanner.scan();
+    run(new Parser(new Scanner(loxSource)), Paths.get("")); // imports on the prompt are relative to the working directory
+  }
+
+  /*
+   * 'directory' is where the imports of the program are looked up
+   */
+  private static void run(Parser parser, Path directory) {
+    if (flatAst) {
+      FlatAst program = compileFlat(parser, directory, new Resolver());
+      if (program != null)
+        interpreter.interpret(program);
+    } else {
+      List<Stmt> statements = compile(parser, directory, new Resolver());
+      if (statements != null)
+        execute(statements);
+    }
+  }
+
+  /*
+   * The whole file has to be read to find it in the cache, on a miss it is compiled from the bytes read
+   * and stored once it resolved without errors. Imports are linked again either way, the modules may have changed.
+   */
+  private static void runCached(Path file) throws IOException {
+    byte[] source = Files.readAllBytes(file);
+    Path directory = file.getParent();
+    ProgramCache.Entry cached = cache.load(source);
+    Parser parser = new Parser(new Scanner(new String(source, StandardCharsets.UTF_8)));
+    Resolver resolver = new Resolver();
+    if (cached != null) {
+      reportUnusedVariables(cached.unusedVariables);
+    }
+
+    if (flatAst) {
+      FlatAst program;
+      if (cached == null) {
+        program = compileFlat(parser, directory, resolver);
+        if (program == null)
+          return;
+        cache.store(source, program, resolver.reportUnusedVariables());
+      } else {
+        program = cached.program;
+        modules.link(program, directory);
+        if (hadError)
+          return;
+      }
+      interpreter.interpret(program);
+      return;
+    }
 
-    Parser parser = new Parser(tokens);
+    List<Stmt> statements;
+    if (cached == null) {
+      statements = compile(parser, directory, resolver);
+      if (statements == null)
+        return;
+      cache.store(source, FlatAst.of(statements), resolver.reportUnusedVariables());
+    } else {
+      statements = cached.program.statements();
+      modules.link(statements, directory);
+      if (hadError)
+        return;
+    }
+    execute(statements);
+  }
+
+  /*
+   * Parses and resolves a program and loads its imports, null if there were errors
+   */
+  private static List<Stmt> compile(Parser parser, Path directory, Resolver resolver) {
     List<Stmt> statements = parser.parseStatements();
 
     if (hadError)
-      return;
+      return null;
+
+    // scan, parse and resolve every module the program imports, in parallel
+    modules.link(statements, directory);
 
     // run the resolver to find all variables and their correct scopes
-    Resolver resolver = new Resolver(interpreter);
     resolver.resolve(statements);
+    reportUnusedVariables(resolver.reportUnusedVariables());
+
+    // don't interpret code if there were any resolution errors
+    if (hadError)
+      return null;
 
-    List<String> unusedVars = resolver.reportUnusedVariables();
-    if (unusedVars.size() > 0) {
-      for (String var : unusedVars) {
-        System.err.println(String.format("Warning: Variable '%s' is declared but never used.", var));
+    // fold constants, prune dead branches and drop dead stores
+    statements = new Optimizer(resolver).optimize(statements);
+
+    // mark the expressions and locals that only hold numbers so they can be evaluated without boxing
+    new NumberInference().infer(statements);
+    return statements;
+  }
+
+  private static void execute(List<Stmt> statements) {
+    switch (engine) {
+      case CLOSURE:
+        interpreter.interpret(new NodeCompiler(interpreter).compile(statements));
+        break;
+      case VM:
+        runOnVm(statements);
+        break;
+      default:
+        interpreter.interpret(statements);
+    }
+  }
+
+  /*
+   * Like compile, but the program never exists as a whole tree of objects: every pass inflates one top-level
+   * statement at a time from the FlatAst
+   */
+  private static FlatAst compileFlat(Parser parser, Path directory, Resolver resolver) {
+    FlatAst program = parser.parseFlat();
+    if (hadError)
+      return null;
+
+    modules.link(program, directory);
+
+    // the optimizer rewrites the statements, they are packed again into a new FlatAst
+    Optimizer optimizer = new Optimizer(resolver);
+    FlatAst optimized = new FlatAst();
+    for (int i = 0; i < program.size(); i++) {
+      Stmt stmt = program.statement(i);
+      resolver.resolve(Collections.singletonList(stmt));
+      stmt = optimizer.optimize(stmt);
+      if (stmt != null) {
+        optimized.add(stmt);
       }
     }
+    optimized.trim();
+    reportUnusedVariables(resolver.reportUnusedVariables());
+    if (hadError)
+      return null;
 
-    // don't interpret code if there were any resolution errors
+    new NumberInference().infer(optimized);
+    return optimized;
+  }
+
+  private static void runOnVm(List<Stmt> statements) {
+    ObjFunction script = new BytecodeCompiler().compile(statements);
     if (hadError)
       return;
 
-    interpreter.interpret(statements);
+    if (debugMode) {
+      System.out.println(script.chunk.disassemble(script.toString()));
+    }
+
+    try {
+      vm.interpret(script);
+    } catch (VMError error) {
+      runtimeError(error.line, error.getMessage());
+    }
+  }
+
+  static void reportUnusedVariables(List<String> unusedVariables) {
+    for (String var : unusedVariables) {
+      System.err.println(String.format("Warning: Variable '%s' is declared but never used.", var));
+    }
   }
 
   static void error(int line, String msg) {
@@ -107,13 +341,18 @@ public class Lox {
   }
 
   static void runtimeError(RuntimeError re) {
-    System.err.println(String.format("line %d: %s", re.token.line, re.getMessage()));
+    runtimeError(re.token.line, re.getMessage());
+  }
+
+  static void runtimeError(int line, String message) {
+    System.err.println(String.format("line %d: %s", line, message));
     hadRuntimeError = true;
   }
 
   private static void report(int line, String where, String msg) {
     System.err.println("[line " + line + "] Error" + where + ": " + msg);
-    hadError = true;
+    if (!ModuleLoader.flagError())
+      hadError = true;
   }
 
   static void error(Token token, String message) {
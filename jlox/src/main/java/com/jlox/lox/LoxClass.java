@@ -1,13 +1,15 @@
 package com.jlox.lox;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 class LoxClass implements LoxCallable {
     final String name;
-    private final Map<String, LoxFunction> methods;
+    final Shape rootShape = Shape.root(); // shape of a new instance without any fields
+    private final Map<Symbol, LoxFunction> methods;
 
-    LoxClass(String name, Map<String, LoxFunction> methods) {
+    LoxClass(String name, Map<Symbol, LoxFunction> methods) {
         this.name = name;
         this.methods = methods;
     }
@@ -21,10 +23,10 @@ class LoxClass implements LoxCallable {
     public Object call(Interpreter interpreter, List<Object> args) {
         LoxInstance instance = new LoxInstance(this);
 
-        LoxFunction init = findMethod("init");
+        LoxFunction init = findMethod(Symbol.INIT);
         if (init != null) {
-            // bind (i.e. add 'this') and run now
-            init.bind(instance).call(interpreter, args);
+            // run now with the new instance as 'this'
+            init.callMethod(interpreter, instance, args);
         }
 
         return instance;
@@ -32,18 +34,18 @@ class LoxClass implements LoxCallable {
 
     @Override
     public int arity() {
-        LoxFunction init = findMethod("init");
+        LoxFunction init = findMethod(Symbol.INIT);
         if (init == null)
             return 0; // default init does not take any arguments
 
         return init.arity();
     }
 
-    LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
+    LoxFunction findMethod(Symbol name) {
+        return methods.get(name);
+    }
 
-        return null;
+    Map<Symbol, LoxFunction> methods() {
+        return Collections.unmodifiableMap(methods);
     }
 }
\ No newline at end of file
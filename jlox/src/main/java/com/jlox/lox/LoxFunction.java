@@ -6,11 +6,39 @@ class LoxFunction implements LoxCallable {
   private final Environment closure;
   private final Stmt.Fun declaration;
   private final Boolean isInit;
+  private final boolean isMethod; // methods keep 'this' in slot 0 of their frame
+  private final LoxInstance receiver; // the instance a method was bound to, if any
 
   LoxFunction(Stmt.Fun declaration, Environment closure, Boolean isInit) {
+    this(declaration, closure, isInit, false, null);
+  }
+
+  LoxFunction(Stmt.Fun declaration, Environment closure, Boolean isInit, boolean isMethod, LoxInstance receiver) {
     this.declaration = declaration;
     this.closure = closure;
     this.isInit = isInit;
+    this.isMethod = isMethod;
+    this.receiver = receiver;
+  }
+
+  Stmt.Fun declaration() {
+    return declaration;
+  }
+
+  boolean isMethod() {
+    return isMethod;
+  }
+
+  boolean isInit() {
+    return isInit;
+  }
+
+  Environment closure() {
+    return closure;
+  }
+
+  LoxInstance receiver() {
+    return receiver;
   }
 
   @Override
@@ -25,32 +53,93 @@ class LoxFunction implements LoxCallable {
 
   @Override
   public Object call(Interpreter interpreter, List<Object> args) {
-    Environment localFuncEnvironment = new Environment(closure);
+    return callMethod(interpreter, receiver, args);
+  }
+
+  Object callMethod(Interpreter interpreter, LoxInstance instance, List<Object> args) {
+    Environment localFuncEnvironment = newFrame(interpreter, instance);
 
     for (int argIndex = 0; argIndex < declaration.params.size(); argIndex++) {
-      // bind concrete argument for the call to the name of the param at this position
-      localFuncEnvironment.define(declaration.params.get(argIndex).lexeme, args.get(argIndex));
+      // bind concrete argument for the call to the slot of the param at this position
+      localFuncEnvironment.define(args.get(argIndex));
     }
 
-    try {
-      interpreter.evaluateBlock(declaration.body, localFuncEnvironment);
-    } catch (Return r) {
-      // in 'init' an empty return will return 'this'
-      if (isInit)
-        return closure.getAt(0, "this");
-      return r.value; // evaluated expression or null
+    return invoke(interpreter, localFuncEnvironment);
+  }
+
+  /*
+   * Create the environment for a call. Callers define the arguments in it and then invoke() the function,
+   * which gives the frame back if it came from the ValueStack.
+   */
+  Environment newFrame(Interpreter interpreter, LoxInstance instance) {
+    Environment frame = declaration.onStack ? interpreter.stack.push(closure, declaration.frameSize)
+        : new Environment(closure, declaration.frameSize);
+    if (isMethod)
+      frame.define(instance);
+    return frame;
+  }
+
+  /*
+   * Runs the function and then the tail calls it returns one after the other, see TailCall
+   */
+  Object invoke(Interpreter interpreter, Environment frame) {
+    LoxFunction function = this;
+    for (;;) {
+      Object value;
+      try {
+        value = function.run(interpreter, frame);
+      } finally {
+        if (function.declaration.onStack)
+          interpreter.stack.pop();
+      }
+
+      if (!(value instanceof TailCall))
+        return value;
+
+      TailCall call = (TailCall) value;
+      function = call.function;
+      frame = function.newFrame(interpreter, call.receiver);
+      for (Object arg : call.args) {
+        frame.define(arg);
+      }
+    }
+  }
+
+  private Object run(Interpreter interpreter, Environment frame) {
+    if (++declaration.invocations >= declaration.nextPromotion) {
+      declaration.nextPromotion = interpreter.tiers.promote(this);
+    }
+
+    if (declaration.jitCode != null) {
+      Object value = declaration.jitCode.run(interpreter, frame);
+      return isInit ? frame.getAt(0, 0) : value;
     }
 
+    Completion completion;
+    if (declaration.compiledBody != null) {
+      completion = declaration.compiledBody.execute(frame);
+    } else {
+      completion = interpreter.evaluateBlock(declaration.body, frame);
+    }
+
+    // in 'init' an empty return will return 'this'
     if (isInit)
-      return closure.getAt(0, "this");
+      return frame.getAt(0, 0);
+
+    if (completion == Completion.RETURN) {
+      Object value = interpreter.returnValue; // evaluated expression or null
+      interpreter.returnValue = null;
+      return value;
+    }
 
     return null;
   }
 
+  /*
+   * Only needed when a method is used as a value, e.g. 'var m = obj.method;'.
+   * Calls of the form 'obj.method()' pass the receiver straight to callMethod().
+   */
   LoxFunction bind(LoxInstance instance) {
-    // capture the current functions environment
-    Environment env = new Environment(closure);
-    env.define("this", instance); // add 'this' to the current env
-    return new LoxFunction(declaration, env, isInit); // return a new function with the updated environment
+    return new LoxFunction(declaration, closure, isInit, isMethod, instance);
   }
 }
@@ -1,14 +1,17 @@
 package com.jlox.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 class LoxInstance {
+    private static final Object[] NO_FIELDS = new Object[0];
+
     private LoxClass cls;
-    private final Map<String, Object> fields = new HashMap<>();
+    private Shape shape;
+    private Object[] values = NO_FIELDS; // field values, laid out as described by the shape
 
     LoxInstance(LoxClass cls) {
         this.cls = cls;
+        this.shape = cls.rootShape;
     }
 
     @Override
@@ -17,11 +20,12 @@ class LoxInstance {
     }
 
     Object get(Token attributeName) {
-        if (fields.containsKey(attributeName.lexeme)) {
-            return fields.get(attributeName.lexeme);
+        int slot = shape.slotOf(attributeName.symbol);
+        if (slot >= 0) {
+            return values[slot];
         }
 
-        LoxFunction method = this.cls.findMethod(attributeName.lexeme);
+        LoxFunction method = this.cls.findMethod(attributeName.symbol);
 
         if (method != null)
             return method.bind(this);
@@ -29,7 +33,40 @@ class LoxInstance {
         throw new RuntimeError(attributeName, String.format("Unknown property '%s' on %s", attributeName.lexeme, this));
     }
 
+    LoxClass cls() {
+        return cls;
+    }
+
+    Shape shape() {
+        return shape;
+    }
+
+    Object getSlot(int slot) {
+        return values[slot];
+    }
+
+    /*
+     * Store a field whose slot the caller already looked up in a PropertyCache.
+     * The shape is the one the instance has after the store, it only differs if the field is new.
+     */
+    void setSlot(Shape newShape, int slot, Object value) {
+        if (slot >= values.length) {
+            values = Arrays.copyOf(values, Math.max(4, values.length * 2));
+        }
+        shape = newShape;
+        values[slot] = value;
+    }
+
     void set(Token attributeName, Object value) {
-        fields.put(attributeName.lexeme, value);
+        int slot = shape.slotOf(attributeName.symbol);
+        if (slot < 0) {
+            shape = shape.withField(attributeName.symbol);
+            slot = shape.size() - 1;
+            if (slot >= values.length) {
+                values = Arrays.copyOf(values, Math.max(4, values.length * 2));
+            }
+        }
+
+        values[slot] = value;
     }
-}
\ No newline at end of file
+}
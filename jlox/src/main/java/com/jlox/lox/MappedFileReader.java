@@ -0,0 +1,69 @@
+package com.jlox.lox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Reads a UTF-8 source file through memory-mapped regions of its FileChannel and decodes it while it is read.
+ * Only one region is mapped at a time, so nothing proportional to the file size ends up on the heap.
+ * Malformed input is replaced with U+FFFD like new String(bytes, UTF_8) does.
+ */
+class MappedFileReader extends Reader {
+  private static final long REGION_SIZE = 1 << 20;
+
+  private final FileChannel channel;
+  private final long size;
+  private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private ByteBuffer region;
+  private long regionStart = 0; // file position of the region
+  private boolean flushed = false;
+
+  MappedFileReader(Path path) throws IOException {
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    this.size = channel.size();
+    this.region = map(0);
+  }
+
+  @Override
+  public int read(char[] chars, int offset, int length) throws IOException {
+    if (length == 0)
+      return 0;
+
+    CharBuffer out = CharBuffer.wrap(chars, offset, length);
+    while (out.position() == offset && !flushed) {
+      boolean lastRegion = regionStart + region.limit() == size;
+      decoder.decode(region, out, lastRegion);
+
+      if (out.position() == offset) {
+        if (lastRegion) {
+          decoder.flush(out);
+          flushed = true;
+        } else {
+          // bytes of a character cut off at the end of the region are mapped again with the next one
+          region = map(regionStart + region.position());
+        }
+      }
+    }
+    return out.position() == offset ? -1 : out.position() - offset;
+  }
+
+  private ByteBuffer map(long position) throws IOException {
+    regionStart = position;
+    return channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(REGION_SIZE, size - position));
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
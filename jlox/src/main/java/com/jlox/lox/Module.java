@@ -0,0 +1,23 @@
+package com.jlox.lox;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/*
+ * A Lox file loaded by an 'import', shared by every file that imports it. Its statements are parsed and resolved
+ * once by the ModuleLoader and run by the first import that is executed.
+ */
+class Module {
+  final Path path;
+  List<Stmt> statements = null; // null until loaded, stays null if the file could not be read
+  boolean executed = false; // set before the statements run, so an import cycle does not run them again
+
+  Module(Path path) {
+    this.path = path;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("<module %s>", path);
+  }
+}
@@ -0,0 +1,189 @@
+package com.jlox.lox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Finds the files a program imports and everything they import in turn, and scans, parses and resolves them
+ * in parallel on a fork-join pool. Every file becomes one Module no matter how many files import it, and
+ * each import statement is linked to its Module.
+ *
+ * Paths are relative to the directory of the importing file. The first import of a file that is seen
+ * starts the task that loads it, so every task only waits for the tasks it started and cycles can't deadlock.
+ */
+class ModuleLoader {
+
+  private static final ThreadLocal<Load> compiling = new ThreadLocal<>(); // the load a thread compiles a module for
+
+  private final ForkJoinPool pool = ForkJoinPool.commonPool();
+  private final Map<Path, Module> modules = new ConcurrentHashMap<>();
+  ProgramCache cache = null; // where resolved modules are kept between runs, see --cache
+
+  /*
+   * Loads one file and forks the loading of the files it imports
+   */
+  private class Load extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Module module;
+    private final Token importedAt; // where errors about the file itself are reported
+    private boolean hadError = false; // errors in this module, see flagError()
+    private boolean failed = false; // errors in this module or the ones it loaded, valid once the load is done
+
+    Load(Module module, Token importedAt) {
+      this.module = module;
+      this.importedAt = importedAt;
+    }
+
+    @Override
+    protected void compute() {
+      List<Stmt> statements = compile();
+      if (statements != null) {
+        module.statements = statements;
+
+        List<Load> loads = imports(statements, module.path.getParent());
+        invokeAll(loads);
+        for (Load load : loads) {
+          failed |= load.failed;
+        }
+      }
+
+      failed |= hadError;
+      if (failed) {
+        // a later import, e.g. on the prompt, loads it again and reports the errors again instead of running it
+        modules.remove(module.path, module);
+      }
+    }
+
+    private List<Stmt> compile() {
+      compiling.set(this);
+      try {
+        return cache == null ? parse() : parseCached();
+      } catch (IOException | UncheckedIOException e) {
+        Lox.error(importedAt, String.format("Can't read module '%s'", module.path));
+        return null;
+      } finally {
+        compiling.remove();
+      }
+    }
+
+    private List<Stmt> parse() throws IOException {
+      try (MappedFileReader source = new MappedFileReader(module.path)) {
+        return resolve(new Parser(new Scanner(source)).parseStatements(), new Resolver());
+      }
+    }
+
+    private List<Stmt> parseCached() throws IOException {
+      byte[] source = Files.readAllBytes(module.path);
+      ProgramCache.Entry cached = cache.load(source);
+      if (cached != null) {
+        Lox.reportUnusedVariables(cached.unusedVariables);
+        return cached.program.statements();
+      }
+
+      Resolver resolver = new Resolver();
+      List<Stmt> statements = resolve(new Parser(new Scanner(new String(source, StandardCharsets.UTF_8)))
+          .parseStatements(), resolver);
+      if (!hadError) {
+        cache.store(source, FlatAst.of(statements), resolver.reportUnusedVariables());
+      }
+      return statements;
+    }
+
+    private List<Stmt> resolve(List<Stmt> statements, Resolver resolver) {
+      if (statements.contains(null))
+        return statements; // parse errors were reported, the program won't run
+
+      resolver.resolve(statements);
+      Lox.reportUnusedVariables(resolver.reportUnusedVariables());
+      if (hadError)
+        return statements; // the program won't run
+
+      statements = new Optimizer(resolver).optimize(statements);
+      new NumberInference().infer(statements);
+      return statements;
+    }
+  }
+
+  /*
+   * Loads all modules a program imports, directly or not, and waits until they are ready.
+   * Sets Lox.hadError if any of them had errors.
+   */
+  void link(List<Stmt> statements, Path directory) {
+    List<Load> loads = imports(statements, directory);
+    for (Load load : loads) {
+      pool.execute(load);
+    }
+    for (Load load : loads) {
+      load.join();
+      if (load.failed)
+        Lox.hadError = true;
+    }
+  }
+
+  /*
+   * Errors found while a thread compiles a module belong to its load and reach Lox.hadError through link(),
+   * the flag is not shared between the threads. False if the current thread compiles no module.
+   */
+  static boolean flagError() {
+    Load load = compiling.get();
+    if (load == null)
+      return false;
+
+    load.hadError = true;
+    return true;
+  }
+
+  /*
+   * Like link, but for the top-level statements of a FlatAst
+   */
+  void link(FlatAst program, Path directory) {
+    List<Stmt> imports = new ArrayList<>();
+    List<Integer> indices = new ArrayList<>();
+    for (int i = 0; i < program.size(); i++) {
+      Stmt stmt = program.statement(i);
+      if (stmt instanceof Stmt.Import) {
+        imports.add(stmt);
+        indices.add(i);
+      }
+    }
+
+    link(imports, directory);
+    for (int i = 0; i < imports.size(); i++) {
+      program.store(indices.get(i), imports.get(i));
+    }
+  }
+
+  /*
+   * Links the top-level imports of 'statements' to their modules, returns the loads of modules not seen before.
+   * Imports anywhere else are an error the Resolver reports.
+   */
+  private List<Load> imports(List<Stmt> statements, Path directory) {
+    List<Load> loads = new ArrayList<>();
+    for (Stmt stmt : statements) {
+      if (!(stmt instanceof Stmt.Import))
+        continue;
+
+      Stmt.Import imp = (Stmt.Import) stmt;
+      Path path = directory.resolve((String) imp.path.literal).toAbsolutePath().normalize();
+      Module module = new Module(path);
+      Module loaded = modules.putIfAbsent(path, module);
+      if (loaded == null) {
+        loads.add(new Load(module, imp.path));
+      } else {
+        module = loaded;
+      }
+      imp.module = module;
+    }
+    return loads;
+  }
+}
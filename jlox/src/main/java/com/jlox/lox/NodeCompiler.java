@@ -0,0 +1,229 @@
+package com.jlox.lox;
+
+import java.util.List;
+
+/*
+ * Walks a resolved syntax tree once and links it into a tree of ExprNodes and StmtNodes.
+ * Function bodies are compiled as well and attached to their declaration, so every LoxFunction created
+ * from it runs the compiled body instead of going through the Interpreter's visitor.
+ */
+class NodeCompiler implements Stmt.Visitor<StmtNode>, Expr.Visitor<ExprNode> {
+
+  private final Interpreter interpreter;
+  private int scopeDepth = 0; // number of enclosing blocks and functions, 0 is the top level
+
+  NodeCompiler(Interpreter interpreter) {
+    this.interpreter = interpreter;
+  }
+
+  StmtNode compile(List<Stmt> statements) {
+    return new StmtNode.Sequence(compileAll(statements));
+  }
+
+  /*
+   * A single loop that got hot in the Interpreter
+   */
+  StmtNode compileLoop(Stmt.While loop, boolean isGlobalScope) {
+    scopeDepth = isGlobalScope ? 0 : 1;
+    return compile(loop);
+  }
+
+  private StmtNode[] compileAll(List<Stmt> statements) {
+    StmtNode[] nodes = new StmtNode[statements.size()];
+    for (int i = 0; i < nodes.length; i++) {
+      nodes[i] = compile(statements.get(i));
+    }
+    return nodes;
+  }
+
+  private StmtNode compile(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
+  private ExprNode compile(Expr expr) {
+    return expr == null ? null : expr.accept(this);
+  }
+
+  private boolean isGlobalScope() {
+    return scopeDepth == 0;
+  }
+
+  void compileFunction(Stmt.Fun fun) {
+    scopeDepth++;
+    fun.compiledBody = new StmtNode.Sequence(compileAll(fun.body));
+    scopeDepth--;
+  }
+
+  @Override
+  public StmtNode visitBlockStmt(Stmt.Block stmt) {
+    if (stmt.statements.isEmpty())
+      return new StmtNode.Sequence(new StmtNode[0]); // runs without a frame
+
+    scopeDepth++;
+    StmtNode[] statements = compileAll(stmt.statements);
+    scopeDepth--;
+    return new StmtNode.Block(statements, stmt.frameSize, stmt.reusable, stmt.onStack ? interpreter.stack : null);
+  }
+
+  @Override
+  public StmtNode visitClassStmt(Stmt.Class stmt) {
+    for (Stmt.Fun method : stmt.methods) {
+      compileFunction(method);
+    }
+    return new StmtNode.Class(stmt, isGlobalScope());
+  }
+
+  @Override
+  public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+    return new StmtNode.Expression(compile(stmt.expression));
+  }
+
+  @Override
+  public StmtNode visitFunStmt(Stmt.Fun stmt) {
+    compileFunction(stmt);
+    return new StmtNode.Fun(stmt, isGlobalScope());
+  }
+
+  @Override
+  public StmtNode visitIfStmt(Stmt.If stmt) {
+    StmtNode elseBranch = stmt.elseBranch == null ? null : compile(stmt.elseBranch);
+    return new StmtNode.If(compile(stmt.cond), compile(stmt.thenBranch), elseBranch);
+  }
+
+  @Override
+  public StmtNode visitWhileStmt(Stmt.While stmt) {
+    return new StmtNode.While(compile(stmt.cond), compile(stmt.body));
+  }
+
+  @Override
+  public StmtNode visitPrintStmt(Stmt.Print stmt) {
+    return new StmtNode.Print(compile(stmt.expression));
+  }
+
+  @Override
+  public StmtNode visitReturnStmt(Stmt.Return stmt) {
+    return new StmtNode.Return(interpreter, compile(stmt.value));
+  }
+
+  @Override
+  public StmtNode visitVarStmt(Stmt.Var stmt) {
+    if (isGlobalScope()) {
+      return new StmtNode.DefineGlobal(stmt.name.symbol, compile(stmt.initializer));
+    }
+    return new StmtNode.DefineLocal(compile(stmt.initializer));
+  }
+
+  @Override
+  public StmtNode visitImportStmt(Stmt.Import stmt) {
+    return new StmtNode.Import(stmt.module, interpreter);
+  }
+
+  @Override
+  public ExprNode visitAssignExpr(Expr.Assign expr) {
+    ExprNode value = compile(expr.value);
+    if (expr.depth >= 0) {
+      return new ExprNode.LocalSet(expr.depth, expr.slot, value);
+    }
+    return new ExprNode.GlobalSet(interpreter.globals, expr.name, value);
+  }
+
+  @Override
+  public ExprNode visitBinaryExpr(Expr.Binary expr) {
+    ExprNode left = compile(expr.left);
+    ExprNode right = compile(expr.right);
+
+    switch (expr.operator.type) {
+      case MINUS:
+        return new ExprNode.Subtract(left, expr.operator, right);
+      case SLASH:
+        return new ExprNode.Divide(left, expr.operator, right);
+      case STAR:
+        return new ExprNode.Multiply(left, expr.operator, right);
+      case PLUS:
+        return new ExprNode.UninitializedAdd(left, expr.operator, right);
+      case GREATER:
+        return new ExprNode.Greater(left, expr.operator, right);
+      case GREATER_EQUAL:
+        return new ExprNode.GreaterEqual(left, expr.operator, right);
+      case LESS:
+        return new ExprNode.Less(left, expr.operator, right);
+      case LESS_EQUAL:
+        return new ExprNode.LessEqual(left, expr.operator, right);
+      case BANG_EQUAL:
+        return new ExprNode.NotEqual(left, expr.operator, right);
+      case EQUAL_EQUAL:
+        return new ExprNode.Equal(left, expr.operator, right);
+      default:
+        throw new RuntimeException(
+            String.format("Unsupported Operator for Binary expression: %s", expr.operator.lexeme));
+    }
+  }
+
+  @Override
+  public ExprNode visitCallExpr(Expr.Call expr) {
+    ExprNode[] args = new ExprNode[expr.args.size()];
+    for (int i = 0; i < args.length; i++) {
+      args[i] = compile(expr.args.get(i));
+    }
+    if (expr.callee instanceof Expr.Get) {
+      Expr.Get get = (Expr.Get) expr.callee;
+      ExprNode.Get callee = new ExprNode.Get(compile(get.object), get.name);
+      return new ExprNode.Invoke(interpreter, callee, expr.parenthesis, args, expr.tailCall);
+    }
+    return new ExprNode.Call(interpreter, compile(expr.callee), expr.parenthesis, args, expr.tailCall);
+  }
+
+  @Override
+  public ExprNode visitGetExpr(Expr.Get expr) {
+    return new ExprNode.Get(compile(expr.object), expr.name);
+  }
+
+  @Override
+  public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+    return compile(expr.expression);
+  }
+
+  @Override
+  public ExprNode visitLiteralExpr(Expr.Literal expr) {
+    return new ExprNode.Constant(expr.value);
+  }
+
+  @Override
+  public ExprNode visitLogicalExpr(Expr.Logical expr) {
+    if (expr.operator.type == TokenType.OR) {
+      return new ExprNode.Or(compile(expr.left), compile(expr.right));
+    }
+    return new ExprNode.And(compile(expr.left), compile(expr.right));
+  }
+
+  @Override
+  public ExprNode visitSetExpr(Expr.Set expr) {
+    return new ExprNode.Set(compile(expr.object), expr.name, compile(expr.value));
+  }
+
+  @Override
+  public ExprNode visitThisExpr(Expr.This expr) {
+    return new ExprNode.LocalGet(expr.depth, expr.slot);
+  }
+
+  @Override
+  public ExprNode visitUnaryExpr(Expr.Unary expr) {
+    switch (expr.operator.type) {
+      case BANG:
+        return new ExprNode.Not(compile(expr.right));
+      case MINUS:
+        return new ExprNode.Negate(expr.operator, compile(expr.right));
+      default:
+        throw new RuntimeException(
+            String.format("Unsupported Operator for Unary expression: %s", expr.operator.lexeme));
+    }
+  }
+
+  @Override
+  public ExprNode visitVariableExpr(Expr.Variable expr) {
+    if (expr.depth >= 0) {
+      return new ExprNode.LocalGet(expr.depth, expr.slot);
+    }
+    return new ExprNode.GlobalGet(interpreter.globals, expr.name);
+  }
+}
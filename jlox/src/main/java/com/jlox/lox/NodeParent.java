@@ -0,0 +1,15 @@
+package com.jlox.lox;
+
+/*
+ * Anything that holds ExprNode children, so a child can swap itself for a specialized version
+ */
+interface NodeParent {
+
+  void replaceChild(ExprNode oldChild, ExprNode newChild);
+
+  default <T extends ExprNode> T adopt(T child) {
+    if (child != null)
+      child.parent = this;
+    return child;
+  }
+}
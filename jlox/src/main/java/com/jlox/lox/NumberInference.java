@@ -0,0 +1,261 @@
+package com.jlox.lox;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+/*
+ * Runs after the Resolver and finds the expressions and local variables that can only ever hold numbers,
+ * e.g. loop counters or arithmetic on literals. It marks them with 'numeric' so the Interpreter can
+ * compute them as primitive doubles (see Interpreter.evaluateDouble) instead of boxing every intermediate result.
+ *
+ * A local is numeric if its initializer and every assignment to it are numeric. Locals start out as numeric
+ * and the tree is walked until no more locals lose that property.
+ */
+class NumberInference implements Stmt.Visitor<Void>, Expr.Visitor<Boolean> {
+
+  /*
+   * What is known about a local variable, scopes mirror the ones of the Resolver
+   */
+  private static class Local {
+    boolean numeric;
+
+    Local(boolean numeric) {
+      this.numeric = numeric;
+    }
+  }
+
+  private final Stack<Map<Symbol, Local>> scopes = new Stack<>();
+  private final Map<Token, Local> declarations = new IdentityHashMap<>(); // keeps locals alive across passes
+  private boolean changed = false;
+
+  void infer(List<Stmt> statements) {
+    do {
+      changed = false;
+      for (Stmt stmt : statements) {
+        stmt.accept(this);
+      }
+    } while (changed);
+  }
+
+  void infer(FlatAst program) {
+    for (int i = 0; i < program.size(); i++) {
+      Stmt stmt = program.statement(i);
+      infer(Collections.singletonList(stmt));
+      program.store(i, stmt);
+    }
+  }
+
+  private boolean infer(Expr expr) {
+    return expr.accept(this);
+  }
+
+  private void infer(List<Stmt> statements, Map<Symbol, Local> scope) {
+    scopes.push(scope);
+    for (Stmt stmt : statements) {
+      stmt.accept(this);
+    }
+    scopes.pop();
+  }
+
+  private Local declare(Token name, boolean numeric) {
+    if (scopes.isEmpty())
+      return null; // globals can be changed from anywhere
+
+    Local local = declarations.get(name);
+    if (local == null) {
+      local = new Local(numeric);
+      declarations.put(name, local);
+    }
+    scopes.peek().put(name.symbol, local);
+    return local;
+  }
+
+  private void update(Local local, boolean numeric) {
+    if (local != null && local.numeric && !numeric) {
+      local.numeric = false;
+      changed = true;
+    }
+  }
+
+  private Local lookup(Token name, int depth) {
+    if (depth < 0)
+      return null;
+    return scopes.get(scopes.size() - 1 - depth).get(name.symbol);
+  }
+
+  private void inferFunction(Stmt.Fun fun, boolean isMethod) {
+    Map<Symbol, Local> scope = new HashMap<>();
+    if (isMethod)
+      scope.put(Symbol.THIS, new Local(false));
+    for (Token param : fun.params) {
+      scope.put(param.symbol, new Local(false)); // arguments can be anything
+    }
+    infer(fun.body, scope);
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    infer(stmt.statements, new HashMap<Symbol, Local>());
+    return null;
+  }
+
+  @Override
+  public Void visitClassStmt(Stmt.Class stmt) {
+    declare(stmt.name, false);
+    for (Stmt.Fun method : stmt.methods) {
+      inferFunction(method, true);
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    infer(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitFunStmt(Stmt.Fun stmt) {
+    declare(stmt.name, false);
+    inferFunction(stmt, false);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    infer(stmt.cond);
+    stmt.thenBranch.accept(this);
+    if (stmt.elseBranch != null)
+      stmt.elseBranch.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    infer(stmt.cond);
+    stmt.body.accept(this);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    infer(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    if (stmt.value != null)
+      infer(stmt.value);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    boolean numeric = stmt.initializer != null && infer(stmt.initializer);
+    update(declare(stmt.name, numeric), numeric);
+    return null;
+  }
+
+  @Override
+  public Void visitImportStmt(Stmt.Import stmt) {
+    return null; // the ModuleLoader infers the module's statements on its own
+  }
+
+  @Override
+  public Boolean visitAssignExpr(Expr.Assign expr) {
+    boolean numeric = infer(expr.value);
+    update(lookup(expr.name, expr.depth), numeric);
+    return numeric;
+  }
+
+  @Override
+  public Boolean visitBinaryExpr(Expr.Binary expr) {
+    boolean left = infer(expr.left);
+    boolean right = infer(expr.right);
+
+    switch (expr.operator.type) {
+      case MINUS:
+      case SLASH:
+      case STAR:
+        expr.numeric = left && right;
+        return true; // a number or a RuntimeError
+      case PLUS:
+        expr.numeric = left && right;
+        return expr.numeric;
+      case GREATER:
+      case GREATER_EQUAL:
+      case LESS:
+      case LESS_EQUAL:
+        expr.numeric = left && right;
+        return false;
+      default:
+        return false;
+    }
+  }
+
+  @Override
+  public Boolean visitCallExpr(Expr.Call expr) {
+    infer(expr.callee);
+    for (Expr arg : expr.args) {
+      infer(arg);
+    }
+    return false;
+  }
+
+  @Override
+  public Boolean visitGetExpr(Expr.Get expr) {
+    infer(expr.object);
+    return false;
+  }
+
+  @Override
+  public Boolean visitGroupingExpr(Expr.Grouping expr) {
+    return infer(expr.expression);
+  }
+
+  @Override
+  public Boolean visitLiteralExpr(Expr.Literal expr) {
+    return expr.value instanceof Double;
+  }
+
+  @Override
+  public Boolean visitLogicalExpr(Expr.Logical expr) {
+    infer(expr.left);
+    infer(expr.right);
+    return false;
+  }
+
+  @Override
+  public Boolean visitSetExpr(Expr.Set expr) {
+    infer(expr.object);
+    infer(expr.value);
+    return false;
+  }
+
+  @Override
+  public Boolean visitThisExpr(Expr.This expr) {
+    return false;
+  }
+
+  @Override
+  public Boolean visitUnaryExpr(Expr.Unary expr) {
+    boolean right = infer(expr.right);
+    if (expr.operator.type == TokenType.MINUS) {
+      expr.numeric = right;
+      return true; // a number or a RuntimeError
+    }
+    return false;
+  }
+
+  @Override
+  public Boolean visitVariableExpr(Expr.Variable expr) {
+    Local local = lookup(expr.name, expr.depth);
+    expr.numeric = local != null && local.numeric;
+    return expr.numeric;
+  }
+}
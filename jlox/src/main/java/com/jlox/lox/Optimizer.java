@@ -0,0 +1,288 @@
+package com.jlox.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Runs after the Resolver and rewrites the tree into one that does less work at runtime:
+ *
+ * - arithmetic, string concatenation, comparisons and negations of literals are computed once,
+ *   e.g. '2 * 3.14 * r' becomes '6.28 * r'
+ * - 'if' and 'while' statements and 'and'/'or' expressions with a literal condition keep only the branch
+ *   that can run, 'while (false)' loops disappear
+ * - stores to locals that are never read are dropped, the stored value is still evaluated if that can have
+ *   an effect
+ *
+ * Nothing that could fail at runtime is folded, e.g. '"a" - 1' stays as it is and reports its error when it runs.
+ * Removed statements are returned as null. Depths, slots and frame sizes of the Resolver are kept.
+ */
+class Optimizer implements Stmt.Visitor<Stmt>, Expr.Visitor<Expr> {
+
+  private static final Object NOT_CONSTANT = new Object(); // result of folding something that can't be folded
+
+  private final Resolver resolver;
+
+  Optimizer(Resolver resolver) {
+    this.resolver = resolver;
+  }
+
+  List<Stmt> optimize(List<Stmt> statements) {
+    List<Stmt> optimized = new ArrayList<>(statements.size());
+    for (Stmt stmt : statements) {
+      Stmt result = optimize(stmt);
+      if (result != null) {
+        optimized.add(result);
+      }
+    }
+    return optimized;
+  }
+
+  Stmt optimize(Stmt stmt) {
+    return stmt == null ? null : stmt.accept(this);
+  }
+
+  private Expr optimize(Expr expr) {
+    return expr == null ? null : expr.accept(this);
+  }
+
+  private Stmt.Fun optimizeFunction(Stmt.Fun fun) {
+    Stmt.Fun optimized = new Stmt.Fun(fun.name, fun.params, optimize(fun.body));
+    optimized.frameSize = fun.frameSize;
+    optimized.onStack = fun.onStack;
+    return optimized;
+  }
+
+  /*
+   * Evaluating it can't fail or change anything, so its value can be dropped
+   */
+  private static boolean isPure(Expr expr) {
+    return expr instanceof Expr.Literal || expr instanceof Expr.This
+        || (expr instanceof Expr.Variable && ((Expr.Variable) expr).depth >= 0); // globals may be undefined
+  }
+
+  private static boolean isLiteral(Expr expr) {
+    return expr instanceof Expr.Literal;
+  }
+
+  private static Object valueOf(Expr expr) {
+    return ((Expr.Literal) expr).value;
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    List<Stmt> statements = optimize(stmt.statements);
+    if (statements.isEmpty())
+      return null; // removed statements never declare a variable, an empty block has no frame to keep
+
+    Stmt.Block block = new Stmt.Block(statements);
+    block.frameSize = stmt.frameSize;
+    block.reusable = stmt.reusable;
+    block.onStack = stmt.onStack;
+    return block;
+  }
+
+  @Override
+  public Stmt visitClassStmt(Stmt.Class stmt) {
+    List<Stmt.Fun> methods = new ArrayList<>(stmt.methods.size());
+    for (Stmt.Fun method : stmt.methods) {
+      methods.add(optimizeFunction(method));
+    }
+    return new Stmt.Class(stmt.name, methods);
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    Expr expression = optimize(stmt.expression);
+    return isPure(expression) ? null : new Stmt.Expression(expression);
+  }
+
+  @Override
+  public Stmt visitFunStmt(Stmt.Fun stmt) {
+    return optimizeFunction(stmt);
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    Expr cond = optimize(stmt.cond);
+    if (isLiteral(cond)) {
+      return ExprNode.isTruthy(valueOf(cond)) ? optimize(stmt.thenBranch) : optimize(stmt.elseBranch);
+    }
+
+    Stmt thenBranch = optimize(stmt.thenBranch);
+    Stmt elseBranch = optimize(stmt.elseBranch);
+    if (thenBranch == null && elseBranch == null)
+      return isPure(cond) ? null : new Stmt.Expression(cond);
+    if (thenBranch == null) {
+      thenBranch = new Stmt.Block(new ArrayList<>()); // nothing to do, the branch has to exist
+    }
+    return new Stmt.If(cond, thenBranch, elseBranch);
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    Expr cond = optimize(stmt.cond);
+    if (isLiteral(cond) && !ExprNode.isTruthy(valueOf(cond)))
+      return null;
+
+    Stmt body = optimize(stmt.body);
+    return new Stmt.While(cond, body == null ? new Stmt.Block(new ArrayList<>()) : body);
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Stmt.Print stmt) {
+    return new Stmt.Print(optimize(stmt.expression));
+  }
+
+  @Override
+  public Stmt visitReturnStmt(Stmt.Return stmt) {
+    return new Stmt.Return(stmt.keyword, optimize(stmt.value));
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    Expr initializer = optimize(stmt.initializer);
+    if (resolver.isDeadStore(stmt) && initializer != null && isPure(initializer)) {
+      initializer = null; // the variable has to stay, later locals of the frame are in the slots after it
+    }
+    return new Stmt.Var(stmt.name, initializer);
+  }
+
+  @Override
+  public Stmt visitImportStmt(Stmt.Import stmt) {
+    return stmt;
+  }
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    Expr value = optimize(expr.value);
+    if (resolver.isDeadStore(expr))
+      return value; // the value of an assignment is the value assigned
+
+    Expr.Assign assign = new Expr.Assign(expr.name, value);
+    assign.depth = expr.depth;
+    assign.slot = expr.slot;
+    return assign;
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    Expr left = optimize(expr.left);
+    Expr right = optimize(expr.right);
+    if (isLiteral(left) && isLiteral(right)) {
+      Object value = fold(expr.operator, valueOf(left), valueOf(right));
+      if (value != NOT_CONSTANT)
+        return new Expr.Literal(value);
+    }
+    return new Expr.Binary(left, expr.operator, right);
+  }
+
+  /*
+   * The same as the Interpreter computes, NOT_CONSTANT where it would report a runtime error
+   */
+  private static Object fold(Token operator, Object left, Object right) {
+    switch (operator.type) {
+      case EQUAL_EQUAL:
+        return ExprNode.isEqual(left, right);
+      case BANG_EQUAL:
+        return !ExprNode.isEqual(left, right);
+      case PLUS:
+        if (left instanceof String && right instanceof String)
+          return (String) left + (String) right;
+        break;
+      default:
+        break;
+    }
+
+    if (!(left instanceof Double && right instanceof Double))
+      return NOT_CONSTANT;
+
+    double l = (Double) left;
+    double r = (Double) right;
+    switch (operator.type) {
+      case PLUS:
+        return l + r;
+      case MINUS:
+        return l - r;
+      case STAR:
+        return l * r;
+      case SLASH:
+        return l / r;
+      case GREATER:
+        return l > r;
+      case GREATER_EQUAL:
+        return l >= r;
+      case LESS:
+        return l < r;
+      case LESS_EQUAL:
+        return l <= r;
+      default:
+        return NOT_CONSTANT;
+    }
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    List<Expr> args = new ArrayList<>(expr.args.size());
+    for (Expr arg : expr.args) {
+      args.add(optimize(arg));
+    }
+    Expr.Call call = new Expr.Call(optimize(expr.callee), expr.parenthesis, args);
+    call.tailCall = expr.tailCall;
+    return call;
+  }
+
+  @Override
+  public Expr visitGetExpr(Expr.Get expr) {
+    return new Expr.Get(optimize(expr.object), expr.name);
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    return optimize(expr.expression); // the parentheses only mattered to the Parser
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    Expr left = optimize(expr.left);
+    Expr right = optimize(expr.right);
+    if (isLiteral(left)) {
+      boolean decided = expr.operator.type == TokenType.OR ? ExprNode.isTruthy(valueOf(left))
+          : !ExprNode.isTruthy(valueOf(left));
+      return decided ? left : right;
+    }
+    return new Expr.Logical(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitSetExpr(Expr.Set expr) {
+    return new Expr.Set(optimize(expr.object), expr.name, optimize(expr.value));
+  }
+
+  @Override
+  public Expr visitThisExpr(Expr.This expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    Expr right = optimize(expr.right);
+    if (isLiteral(right)) {
+      Object value = valueOf(right);
+      if (expr.operator.type == TokenType.BANG)
+        return new Expr.Literal(!ExprNode.isTruthy(value));
+      if (expr.operator.type == TokenType.MINUS && value instanceof Double)
+        return new Expr.Literal(-(Double) value);
+    }
+    return new Expr.Unary(expr.operator, right);
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    return expr;
+  }
+}
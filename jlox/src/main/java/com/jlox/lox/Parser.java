@@ -11,10 +11,56 @@ class Parser {
   public static class ParseError extends RuntimeException {
   }
 
-  private final List<Token> tokens;
-  private int current = 0;
+  /*
+   * A cursor over tokens that are pulled from the source when the previous one is consumed
+   */
+  private static class SourceCursor implements TokenCursor {
+    private final TokenSource source;
+    private Token current;
+    private Token previous = null;
+
+    SourceCursor(TokenSource source) {
+      this.source = source;
+      this.current = source.next();
+    }
+
+    @Override
+    public TokenType type() {
+      return current.type;
+    }
+
+    @Override
+    public Token current() {
+      return current;
+    }
+
+    @Override
+    public Token previous() {
+      return previous;
+    }
+
+    @Override
+    public void advance() {
+      previous = current;
+      current = source.next();
+    }
+  }
+
+  private final TokenCursor tokens;
 
   Parser(List<Token> tokens) {
+    this(tokens.iterator()::next);
+  }
+
+  Parser(TokenSource tokens) {
+    this(new SourceCursor(tokens));
+  }
+
+  Parser(TokenBuffer tokens) {
+    this(tokens.cursor());
+  }
+
+  Parser(TokenCursor tokens) {
     this.tokens = tokens;
   }
 
@@ -35,6 +81,22 @@ class Parser {
     return statements;
   }
 
+  /*
+   * Parses into a FlatAst, every top-level statement is packed as soon as it is parsed
+   */
+  FlatAst parseFlat() {
+    FlatAst program = new FlatAst();
+    while (!isAtEnd()) {
+      Stmt stmt = declaration();
+      if (stmt != null) {
+        program.add(stmt);
+      }
+    }
+
+    program.trim();
+    return program;
+  }
+
   private Expr expression() {
     return assignment();
   }
@@ -47,6 +109,8 @@ class Parser {
         return function("function");
       if (matchAndAdvance(VAR))
         return varDeclaration();
+      if (matchAndAdvance(IMPORT))
+        return importDeclaration();
       return statement(); // parse regular statement and print expression
     } catch (ParseError error) {
       synchronize();
@@ -56,14 +120,14 @@ class Parser {
 
   private Stmt.Class classDecl() {
     Token className = consume(IDENTIFIER, "Expected class name");
-    consume(LEFT_BRACE, "Expected left curly brace '{' before class definition");
+    expect(LEFT_BRACE, "Expected left curly brace '{' before class definition");
 
     List<Stmt.Fun> methods = new ArrayList<>();
     while (!check(RIGHT_BRACE) && !isAtEnd()) {
       methods.add(function("method"));
     }
 
-    consume(RIGHT_BRACE, "Expected right curly brace '}' after class definition.");
+    expect(RIGHT_BRACE, "Expected right curly brace '}' after class definition.");
     return new Stmt.Class(className, methods);
   }
 
@@ -72,7 +136,7 @@ class Parser {
    */
   private Stmt.Fun function(String kind) {
     Token name = consume(IDENTIFIER, String.format("Expected %s name after keyword", kind));
-    consume(LEFT_PAR, "Expected '(' after function name before parameter list");
+    expect(LEFT_PAR, "Expected '(' after function name before parameter list");
     List<Token> params = new ArrayList<>();
     if (!check(RIGHT_PAR)) {
       do {
@@ -85,9 +149,9 @@ class Parser {
 
       } while (matchAndAdvance(COMMA));
     }
-    consume(RIGHT_PAR, "Expected ')' after function param definition");
+    expect(RIGHT_PAR, "Expected ')' after function param definition");
 
-    consume(LEFT_BRACE, "Expected '{' for body of function");
+    expect(LEFT_BRACE, "Expected '{' for body of function");
     List<Stmt> body = block(); // this already parses the closing bracket
 
     return new Stmt.Fun(name, params, body);
@@ -101,10 +165,20 @@ class Parser {
       init = expression();
     }
 
-    consume(SEMICOLON, "Expected ';' after variable declaration");
+    expect(SEMICOLON, "Expected ';' after variable declaration");
     return new Stmt.Var(name, init);
   }
 
+  /*
+   * import "path/to/module.lox";
+   */
+  private Stmt importDeclaration() {
+    Token keyword = prevToken();
+    Token path = consume(STRING, "Expected module path string after 'import'");
+    expect(SEMICOLON, "Expected ';' after import");
+    return new Stmt.Import(keyword, path);
+  }
+
   /*
    * statement → exprStmt | printStmt ;
    * exprStmt → expression ";" ;
@@ -139,7 +213,7 @@ class Parser {
    * ")" statement ;
    */
   private Stmt forStatement() {
-    consume(LEFT_PAR, "Expect '(' after 'for'");
+    expect(LEFT_PAR, "Expect '(' after 'for'");
     Stmt init;
     if (matchAndAdvance(SEMICOLON)) {
       init = null; // no variable init, e.g. for (; ...) {...}
@@ -155,13 +229,13 @@ class Parser {
     if (!check(SEMICOLON)) {
       cond = expression();
     }
-    consume(SEMICOLON, "Expected a ';' after for loop condition expression");
+    expect(SEMICOLON, "Expected a ';' after for loop condition expression");
 
     Expr inc = null;
     if (!check(RIGHT_PAR)) {
       inc = expression();
     }
-    consume(RIGHT_PAR, "Expected a ')' after increment expression of for loop");
+    expect(RIGHT_PAR, "Expected a ')' after increment expression of for loop");
 
     Stmt body = statement();
 
@@ -187,9 +261,9 @@ class Parser {
   }
 
   private Stmt.If ifStatement() {
-    consume(LEFT_PAR, "Expected '(' after 'if'");
+    expect(LEFT_PAR, "Expected '(' after 'if'");
     Expr cond = expression();
-    consume(RIGHT_PAR, "Expeceted ')' after condition in if-Statement");
+    expect(RIGHT_PAR, "Expeceted ')' after condition in if-Statement");
 
     Stmt thenBranch = statement();
     Stmt elseBranch = null;
@@ -209,13 +283,13 @@ class Parser {
       statements.add(declaration());
     }
 
-    consume(RIGHT_BRACE, "Expected '}' at the end of a block");
+    expect(RIGHT_BRACE, "Expected '}' at the end of a block");
     return statements;
   }
 
   private Stmt.Print printStatement() {
     Expr value = expression();
-    consume(SEMICOLON, "Expected semicolon after print statement");
+    expect(SEMICOLON, "Expected semicolon after print statement");
     return new Stmt.Print(value);
   }
 
@@ -226,14 +300,14 @@ class Parser {
       value = expression();
     }
 
-    consume(SEMICOLON, "Expected ';' at the end of a return statement");
+    expect(SEMICOLON, "Expected ';' at the end of a return statement");
     return new Stmt.Return(keyword, value);
   }
 
   private Stmt.While whileStatement() {
-    consume(LEFT_PAR, "Expected '(' after 'while'");
+    expect(LEFT_PAR, "Expected '(' after 'while'");
     Expr cond = expression();
-    consume(RIGHT_PAR, "Expected ')' after condition expression of while statement");
+    expect(RIGHT_PAR, "Expected ')' after condition expression of while statement");
     Stmt body = statement();
 
     return new Stmt.While(cond, body);
@@ -241,7 +315,7 @@ class Parser {
 
   private Stmt.Expression expressionStatement() {
     Expr expr = expression();
-    consume(SEMICOLON, "Expected semicolon after expression statement");
+    expect(SEMICOLON, "Expected semicolon after expression statement");
     return new Stmt.Expression(expr);
   }
 
@@ -263,7 +337,7 @@ class Parser {
         return new Expr.Assign(variableName, rvalue);
       } else if (expr instanceof Expr.Get) {
         Expr.Get get = (Expr.Get) expr;
-        return new Expr.Set(get, get.name, rvalue);
+        return new Expr.Set(get.object, get.name, rvalue);
       }
 
       reportError(eq, String.format("Invalid assignment target: %s", expr.toString()));
@@ -433,7 +507,7 @@ class Parser {
 
     if (matchAndAdvance(LEFT_PAR)) {
       Expr expr = expression();
-      consume(RIGHT_PAR, "Expect ')' after expression.");
+      expect(RIGHT_PAR, "Expect ')' after expression.");
       return new Expr.Grouping(expr);
     }
 
@@ -452,10 +526,17 @@ class Parser {
   }
 
   private Token consume(TokenType ttype, String message) {
-    if (check(ttype))
-      return advance();
+    expect(ttype, message);
+    return prevToken();
+  }
 
-    throw reportError(peek(), message);
+  /*
+   * Like consume when the token itself is not needed
+   */
+  private void expect(TokenType ttype, String message) {
+    if (!check(ttype))
+      throw reportError(peek(), message);
+    advance();
   }
 
   private ParseError reportError(Token t, String msg) {
@@ -475,10 +556,11 @@ class Parser {
       if (prevToken().type == SEMICOLON)
         return;
 
-      switch (peek().type) {
+      switch (tokens.type()) {
         case CLASS:
         case FUN:
         case VAR:
+        case IMPORT:
         case FOR:
         case IF:
         case WHILE:
@@ -497,24 +579,23 @@ class Parser {
   private boolean check(TokenType ttype) {
     if (isAtEnd())
       return false;
-    return peek().type == ttype;
+    return tokens.type() == ttype;
   }
 
-  private Token advance() {
+  private void advance() {
     if (!isAtEnd())
-      current++;
-    return prevToken();
+      tokens.advance();
   }
 
   private Token prevToken() {
-    return tokens.get(current - 1);
+    return tokens.previous();
   }
 
   private boolean isAtEnd() {
-    return peek().type == EOF;
+    return tokens.type() == EOF;
   }
 
   private Token peek() {
-    return tokens.get(current);
+    return tokens.current();
   }
 }
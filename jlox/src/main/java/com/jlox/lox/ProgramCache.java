@@ -0,0 +1,120 @@
+package com.jlox.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * A directory of programs that were already parsed and resolved, stored as FlatAsts with the depths, slots,
+ * frame sizes and numeric flags the Resolver and the NumberInference filled in. A program is found by the
+ * SHA-256 of the interpreter version and its source, so a changed file or a new interpreter never sees an old entry.
+ *
+ * A file that can't be read is a miss and one that can't be written is skipped, the cache only ever saves work.
+ */
+class ProgramCache {
+  private static final int MAGIC = 0x4c4f5843; // "LOXC"
+  private static final int FORMAT = 4; // bump when FlatAst or its serialized form changes
+
+  private final Path directory;
+
+  /*
+   * A cached program and the warnings resolving it gave, they are reported again on every hit
+   */
+  static class Entry {
+    final FlatAst program;
+    final List<String> unusedVariables;
+
+    Entry(FlatAst program, List<String> unusedVariables) {
+      this.program = program;
+      this.unusedVariables = unusedVariables;
+    }
+  }
+
+  ProgramCache(Path directory) {
+    this.directory = directory;
+  }
+
+  /*
+   * The resolved program of 'source' or null if it is not cached
+   */
+  Entry load(byte[] source) {
+    Path file = directory.resolve(key(source));
+    try (InputStream stream = Files.newInputStream(file)) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT)
+        return null;
+
+      List<String> unusedVariables = new ArrayList<>();
+      for (int count = in.readInt(); count > 0; count--) {
+        unusedVariables.add(in.readUTF());
+      }
+      return new Entry(FlatAst.read(in), unusedVariables);
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException | RuntimeException e) {
+      System.err.println(String.format("Warning: Ignoring broken cache entry '%s'", file));
+      return null;
+    }
+  }
+
+  /*
+   * Writes to a temporary file first, so processes running the same script never read half an entry
+   */
+  void store(byte[] source, FlatAst program, List<String> unusedVariables) {
+    try {
+      Files.createDirectories(directory);
+      String key = key(source);
+      Path temporary = Files.createTempFile(directory, key, ".tmp");
+      try (OutputStream stream = Files.newOutputStream(temporary)) {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeInt(unusedVariables.size());
+        for (String name : unusedVariables) {
+          out.writeUTF(name);
+        }
+        program.write(out);
+        out.flush();
+      }
+      Files.move(temporary, directory.resolve(key), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      System.err.println(String.format("Warning: Can't write to the program cache: %s", e.getMessage()));
+    }
+  }
+
+  private static String key(byte[] source) {
+    return hash(String.format("jlox %s/%d", Lox.VERSION, FORMAT), source) + ".loxc";
+  }
+
+  /*
+   * Hex SHA-256 of a salt followed by the source, also the key of a Snapshot
+   */
+  static String hash(String salt, byte[] source) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(salt.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest.digest(source)) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e); // every JVM has to provide it
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package com.jlox.lox;
+
+/*
+ * Polymorphic inline cache for a single property access site (an Expr.Get or Expr.Set).
+ * It remembers the lookup result for the last few receiver shapes it has seen. Since every class owns
+ * its shapes and methods never change after the class is created, a shape also pins down the method found.
+ * Sites that see more than MAX_ENTRIES shapes go megamorphic and always do the full lookup.
+ */
+class PropertyCache {
+  private static final int MAX_ENTRIES = 4;
+
+  private final Shape[] shapes = new Shape[MAX_ENTRIES];
+  private final int[] slots = new int[MAX_ENTRIES]; // field slot or -1 when the property is a method
+  private final LoxFunction[] methods = new LoxFunction[MAX_ENTRIES];
+  private final Shape[] nextShapes = new Shape[MAX_ENTRIES]; // shape after a set, differs when it adds a field
+  private int size = 0;
+  private boolean megamorphic = false;
+
+  Object get(LoxInstance instance, Token name) {
+    Shape shape = instance.shape();
+    for (int i = 0; i < size; i++) {
+      if (shapes[i] == shape) {
+        int slot = slots[i];
+        return slot >= 0 ? instance.getSlot(slot) : methods[i].bind(instance);
+      }
+    }
+
+    if (megamorphic)
+      return instance.get(name);
+
+    int slot = shape.slotOf(name.symbol);
+    LoxFunction method = slot < 0 ? instance.cls().findMethod(name.symbol) : null;
+    if (slot < 0 && method == null) {
+      return instance.get(name); // reports the unknown property
+    }
+
+    add(shape, slot, method, shape);
+    return slot >= 0 ? instance.getSlot(slot) : method.bind(instance);
+  }
+
+  /*
+   * For a call site 'obj.name(...)': the method to invoke on the instance or null if the property is a field
+   */
+  LoxFunction findMethod(LoxInstance instance, Token name) {
+    Shape shape = instance.shape();
+    for (int i = 0; i < size; i++) {
+      if (shapes[i] == shape) {
+        return methods[i];
+      }
+    }
+
+    int slot = shape.slotOf(name.symbol);
+    LoxFunction method = slot < 0 ? instance.cls().findMethod(name.symbol) : null;
+    if (slot < 0 && method == null) {
+      instance.get(name); // reports the unknown property
+    }
+
+    if (!megamorphic)
+      add(shape, slot, method, shape);
+    return method;
+  }
+
+  void set(LoxInstance instance, Token name, Object value) {
+    Shape shape = instance.shape();
+    for (int i = 0; i < size; i++) {
+      if (shapes[i] == shape) {
+        instance.setSlot(nextShapes[i], slots[i], value);
+        return;
+      }
+    }
+
+    if (megamorphic) {
+      instance.set(name, value);
+      return;
+    }
+
+    instance.set(name, value);
+    Shape next = instance.shape();
+    add(shape, next.slotOf(name.symbol), null, next);
+  }
+
+  private void add(Shape shape, int slot, LoxFunction method, Shape next) {
+    if (size == MAX_ENTRIES) {
+      megamorphic = true;
+      return;
+    }
+
+    shapes[size] = shape;
+    slots[size] = slot;
+    methods[size] = method;
+    nextShapes[size] = next;
+    size++;
+  }
+}
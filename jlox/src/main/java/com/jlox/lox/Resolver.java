@@ -1,22 +1,24 @@
 package com.jlox.lox;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
-  private final Interpreter interpreter;
-  private final Stack<Map<String, VariableState>> scopes = new Stack<>(); // stack to push and pop scopes
+  private final Stack<Map<Symbol, Local>> scopes = new Stack<>(); // stack to push and pop scopes
+  private final Stack<Boolean> reachable = new Stack<>(); // per scope, whether a closure can reach its frame
+  private final Stack<Integer> functionScopes = new Stack<>(); // index of the first scope of every enclosing function
   private final List<String> notUsedVariables = new ArrayList<>();
+  private final Set<Object> deadStores = Collections.newSetFromMap(new IdentityHashMap<>()); // see isDeadStore
   private FunctionType currentFun = FunctionType.NONE;
   private ClassType currentClass = ClassType.NONE;
-
-  Resolver(Interpreter interpreter) {
-    this.interpreter = interpreter;
-  }
+  private int functionDepth = 0; // number of functions around the code being resolved
 
   private enum FunctionType {
     NONE,
@@ -36,14 +38,41 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     USED
   }
 
+  /*
+   * A local variable in a scope and the slot it occupies in the runtime environment of that scope
+   */
+  private static class Local {
+    VariableState state;
+    final int slot;
+    boolean read = false; // assignments make a variable USED but don't read it
+    boolean captured = false; // used by a function declared inside its scope, which may outlive the scope
+    int functionDepth = 0;
+    Stmt.Var declaration = null;
+    final List<Expr.Assign> assignments = new ArrayList<>();
+
+    Local(VariableState state, int slot) {
+      this.state = state;
+      this.slot = slot;
+    }
+  }
+
   private void beginScope() {
-    scopes.push(new HashMap<String, VariableState>());
+    scopes.push(new HashMap<Symbol, Local>());
+    reachable.push(false);
   }
 
   private void endScope() {
     // log any variables that go out of scope without being used
     notUsedVariables.addAll(findUnusuedVariables());
-    scopes.pop();
+
+    // every store to a variable nobody reads is dead
+    reachable.pop();
+    for (Local local : scopes.pop().values()) {
+      if (!local.read && local.declaration != null) {
+        deadStores.add(local.declaration);
+        deadStores.addAll(local.assignments);
+      }
+    }
   }
 
   void resolve(List<Stmt> stmts) {
@@ -52,19 +81,40 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
   }
 
+  /*
+   * True for the declarations of and assignments to local variables that are never read, their values
+   * don't have to be stored. Globals are never dead, they can be read from anywhere.
+   */
+  boolean isDeadStore(Stmt.Var stmt) {
+    return deadStores.contains(stmt);
+  }
+
+  boolean isDeadStore(Expr.Assign expr) {
+    return deadStores.contains(expr);
+  }
+
   // find all vars that have been defined/declared but not used in the scope
   private List<String> findUnusuedVariables() {
     List<String> unused = new ArrayList<>();
-    for (Map<String, VariableState> scope : scopes) {
-      for (Map.Entry<String, VariableState> entry : scope.entrySet()) {
-        if ((entry.getValue() == VariableState.DEFINED) || (entry.getValue() == VariableState.DECLARED)) {
-          unused.add(entry.getKey());
+    for (Map<Symbol, Local> scope : scopes) {
+      for (Map.Entry<Symbol, Local> entry : scope.entrySet()) {
+        VariableState state = entry.getValue().state;
+        if ((state == VariableState.DEFINED) || (state == VariableState.DECLARED)) {
+          unused.add(entry.getKey().name);
         }
       }
     }
     return unused;
   }
 
+  /*
+   * True if no closure can reach the frame of the innermost scope. It is only used until its call or block ends
+   * and can be taken from the ValueStack.
+   */
+  private boolean frameOnStack() {
+    return !reachable.peek();
+  }
+
   List<String> reportUnusedVariables() {
     return notUsedVariables;
   }
@@ -78,29 +128,59 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     expr.accept(this);
   }
 
-  private void resolveLocal(Expr expr, Token name) {
+  /*
+   * Returns how many scopes lie between the usage and the declaration of a local variable
+   * or -1 if the variable is not declared in any local scope (i.e. it is a global)
+   */
+  private int resolveLocal(Token name) {
 
     // traverse the scope backwards
     for (int i = scopes.size() - 1; i >= 0; i--) {
 
       // until the variable is found
-      if (scopes.get(i).containsKey(name.lexeme)) {
+      Local local = scopes.get(i).get(name.symbol);
+      if (local != null) {
+        if (local.functionDepth < functionDepth) {
+          local.captured = true;
+
+          // the closure walks every frame from the function it is declared in down to the variable
+          for (int scope = i; scope < functionScopes.peek(); scope++) {
+            reachable.set(scope, true);
+          }
+        }
 
-        // add the variable to the local scope for the interpreter
-        // also: mark it as 'used' for our static analysis
-        scopes.get(i).put(name.lexeme, VariableState.USED);
-        interpreter.resolveToLocals(expr, scopes.size() - 1 - i);
-        return;
+        // mark it as 'used' for our static analysis
+        local.state = VariableState.USED;
+        return scopes.size() - 1 - i;
       }
     }
+
+    return -1;
+  }
+
+  private int resolveSlot(Token name, int depth) {
+    return local(name, depth).slot;
+  }
+
+  private Local local(Token name, int depth) {
+    return scopes.get(scopes.size() - 1 - depth).get(name.symbol);
   }
 
   private void resolveFunction(Stmt.Fun fun, FunctionType ftype) {
 
     FunctionType enclosingFun = currentFun;
     currentFun = ftype;
+    functionDepth++;
 
     beginScope();
+    functionScopes.push(scopes.size() - 1);
+
+    // methods find their receiver in slot 0 of their own frame
+    if (ftype == FunctionType.METHOD || ftype == FunctionType.INIT) {
+      Local self = new Local(VariableState.USED, 0); // 'this' does not need to be used explicitly
+      self.functionDepth = functionDepth;
+      scopes.peek().put(Symbol.THIS, self);
+    }
 
     for (Token param : fun.params) {
       declare(param);
@@ -108,8 +188,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     resolve(fun.body);
+    fun.frameSize = scopes.peek().size();
+    fun.onStack = frameOnStack();
+    functionScopes.pop();
     endScope();
 
+    functionDepth--;
     currentFun = enclosingFun;
   }
 
@@ -117,24 +201,32 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     if (scopes.isEmpty())
       return;
 
-    Map<String, VariableState> scope = scopes.peek();
-    if (scope.containsKey(name.lexeme)) {
+    Map<Symbol, Local> scope = scopes.peek();
+    if (scope.containsKey(name.symbol)) {
       Lox.error(name, String.format("There is already a variable with the name '%s' in the scope", name.lexeme));
     }
-    scope.put(name.lexeme, VariableState.DECLARED); // false == 'not ready yet'
+    Local local = new Local(VariableState.DECLARED, scope.size()); // false == 'not ready yet'
+    local.functionDepth = functionDepth;
+    scope.put(name.symbol, local);
   }
 
   private void define(Token name) {
     if (scopes.isEmpty())
       return;
 
-    scopes.peek().put(name.lexeme, VariableState.DEFINED);
+    scopes.peek().get(name.symbol).state = VariableState.DEFINED;
   }
 
   @Override
   public Void visitBlockStmt(Stmt.Block stmt) {
     beginScope();
     resolve(stmt.statements);
+    stmt.frameSize = scopes.peek().size();
+    stmt.onStack = frameOnStack();
+    stmt.reusable = true;
+    for (Local local : scopes.peek().values()) {
+      stmt.reusable &= !local.captured;
+    }
     endScope();
     return null;
   }
@@ -146,23 +238,45 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       resolve(stmt.initializer);
     }
     define(stmt.name);
+    if (!scopes.isEmpty()) {
+      scopes.peek().get(stmt.name.symbol).declaration = stmt;
+    }
+    return null;
+  }
+
+  @Override
+  public Void visitImportStmt(Stmt.Import stmt) {
+    if (!scopes.isEmpty()) {
+      Lox.error(stmt.keyword, "Modules can only be imported at the top level");
+    }
     return null;
   }
 
   @Override
   public Void visitVariableExpr(Expr.Variable expr) {
-    if ((!scopes.isEmpty()) && (scopes.peek().get(expr.name.lexeme) == VariableState.DECLARED)) {
+    if ((!scopes.isEmpty()) && scopes.peek().containsKey(expr.name.symbol)
+        && (scopes.peek().get(expr.name.symbol).state == VariableState.DECLARED)) {
       Lox.error(expr.name, String.format("Can't read local variable in it's own initializer"));
     }
 
-    resolveLocal(expr, expr.name);
+    expr.depth = resolveLocal(expr.name);
+    if (expr.depth >= 0) {
+      Local local = local(expr.name, expr.depth);
+      local.read = true;
+      expr.slot = local.slot;
+    }
     return null;
   }
 
   @Override
   public Void visitAssignExpr(Expr.Assign expr) {
     resolve(expr.value);
-    resolveLocal(expr, expr.name);
+    expr.depth = resolveLocal(expr.name);
+    if (expr.depth >= 0) {
+      Local local = local(expr.name, expr.depth);
+      local.assignments.add(expr);
+      expr.slot = local.slot;
+    }
     return null;
   }
 
@@ -173,15 +287,12 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     declare(cls.name);
     define(cls.name);
 
-    beginScope();
-    scopes.peek().put("this", VariableState.USED); // 'this' does not need to be used explicitly
     for (Stmt.Fun func : cls.methods) {
       FunctionType ftype = FunctionType.METHOD;
-      if (func.name.lexeme.equals("init"))
+      if (func.name.symbol == Symbol.INIT)
         ftype = FunctionType.INIT;
       resolveFunction(func, ftype);
     }
-    endScope();
 
     currentClass = enclosingClass;
     return null;
@@ -228,11 +339,25 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       if (currentFun == FunctionType.INIT)
         Lox.error(stmt.keyword, "Can't return from an initializer function");
       resolve(stmt.value);
+      markTailCalls(stmt.value);
     }
 
     return null;
   }
 
+  /*
+   * Calls whose value is the value of a 'return' are made after the returning function is gone, see TailCall
+   */
+  private void markTailCalls(Expr value) {
+    if (value instanceof Expr.Call) {
+      ((Expr.Call) value).tailCall = true;
+    } else if (value instanceof Expr.Grouping) {
+      markTailCalls(((Expr.Grouping) value).expression);
+    } else if (value instanceof Expr.Logical) {
+      markTailCalls(((Expr.Logical) value).right); // the left operand is only the value if it decides
+    }
+  }
+
   @Override
   public Void visitWhileStmt(Stmt.While stmt) {
     resolve(stmt.cond);
@@ -275,7 +400,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   public Void visitThisExpr(Expr.This expr) {
     if (currentClass != ClassType.CLASS)
       Lox.error(expr.keyword, "Cannot use 'this' outside of methods");
-    resolveLocal(expr, expr.keyword);
+    expr.depth = resolveLocal(expr.keyword);
+    if (expr.depth >= 0)
+      expr.slot = resolveSlot(expr.keyword, expr.depth);
     return null;
   }
 
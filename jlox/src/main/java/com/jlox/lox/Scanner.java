@@ -1,6 +1,10 @@
 package com.jlox.lox;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -8,54 +12,179 @@ import java.util.Map;
 import static com.jlox.lox.TokenType.*;
 
 /**
- * Given a valid .lox source file, tokenizes the source
+ * Given a valid .lox source file, tokenizes the source.
+ *
+ * Tokens are scanned on demand, one per call to next(), or all at once into a TokenBuffer. Source from a Reader
+ * is read in chunks as the scanner gets to it, only the characters of the token being scanned are kept in the buffer.
  */
-public class Scanner {
-  private final String source; // immutable source input
-  private final List<Token> tokens = new ArrayList<>(); // final list of scanned tokens;
+public class Scanner implements TokenSource {
+  private static final int CHUNK_SIZE = 8192;
 
-  // bookkeeping for the scanning process
+  private char[] buffer; // the characters from 'start' on, earlier ones are dropped when reading more
+  private int limit; // end of the characters in the buffer
+  private Reader input; // where more source comes from, null once everything is in the buffer
+
+  // the token scanToken found, if any
+  private TokenType scannedType = null;
+  private String scannedLexeme;
+  private Object scannedLiteral;
+  private int scannedLine;
+
+  // bookkeeping for the scanning process, 'start' and 'current' are positions in the buffer
   private int start, current, line = 0;
 
-  private static final Map<String, TokenType> keywords;
+  private final LexemeTable lexemeTable = new LexemeTable(); // every spelling of a name, number or string once
+  private final Map<String, Double> numbers = new HashMap<>(); // values of number lexemes seen before
+
+  private static final String[] fixedLexemes = new String[TokenType.values().length]; // by TokenType ordinal
 
   static {
-    keywords = new HashMap<>();
-    keywords.put("and", AND);
-    keywords.put("class", CLASS);
-    keywords.put("else", ELSE);
-    keywords.put("false", FALSE);
-    keywords.put("for", FOR);
-    keywords.put("fun", FUN);
-    keywords.put("if", IF);
-    keywords.put("nil", NIL);
-    keywords.put("or", OR);
-    keywords.put("print", PRINT);
-    keywords.put("return", RETURN);
-    keywords.put("super", SUPER);
-    keywords.put("this", THIS);
-    keywords.put("true", TRUE);
-    keywords.put("var", VAR);
-    keywords.put("while", WHILE);
+    fixed(LEFT_PAR, "(");
+    fixed(RIGHT_PAR, ")");
+    fixed(LEFT_BRACE, "{");
+    fixed(RIGHT_BRACE, "}");
+    fixed(COMMA, ",");
+    fixed(DOT, ".");
+    fixed(MINUS, "-");
+    fixed(PLUS, "+");
+    fixed(SEMICOLON, ";");
+    fixed(SLASH, "/");
+    fixed(STAR, "*");
+    fixed(BANG, "!");
+    fixed(BANG_EQUAL, "!=");
+    fixed(EQUAL, "=");
+    fixed(EQUAL_EQUAL, "==");
+    fixed(LESS, "<");
+    fixed(LESS_EQUAL, "<=");
+    fixed(GREATER, ">");
+    fixed(GREATER_EQUAL, ">=");
+
+    // reserved keywords
+    fixed(AND, "and");
+    fixed(CLASS, "class");
+    fixed(ELSE, "else");
+    fixed(FALSE, "false");
+    fixed(FOR, "for");
+    fixed(FUN, "fun");
+    fixed(IF, "if");
+    fixed(IMPORT, "import");
+    fixed(NIL, "nil");
+    fixed(OR, "or");
+    fixed(PRINT, "print");
+    fixed(RETURN, "return");
+    fixed(SUPER, "super");
+    fixed(THIS, "this");
+    fixed(TRUE, "true");
+    fixed(VAR, "var");
+    fixed(WHILE, "while");
+  }
+
+  /*
+   * Tokens of these types are always spelled the same and share their lexeme
+   */
+  private static void fixed(TokenType ttype, String lexeme) {
+    fixedLexemes[ttype.ordinal()] = lexeme;
   }
 
   Scanner(String source) {
-    this.source = source;
+    this.buffer = source.toCharArray();
+    this.limit = buffer.length;
+    this.input = null;
+  }
+
+  /*
+   * Scans the source as it is read from 'input', the caller closes it
+   */
+  Scanner(Reader input) {
+    this.buffer = new char[CHUNK_SIZE];
+    this.limit = 0;
+    this.input = input;
   }
 
   List<Token> scan() {
-    while (!isAtEnd()) {
+    List<Token> tokens = new ArrayList<>();
+    Token token;
+    do {
+      token = next();
+      tokens.add(token);
+    } while (token.type != EOF);
+    return tokens;
+  }
+
+  /*
+   * Scans the whole source into a packed TokenBuffer, no Token objects are created
+   */
+  TokenBuffer scanPacked() {
+    TokenBuffer tokens = new TokenBuffer();
+    while (scanNext()) {
+      tokens.add(scannedType, scannedLexeme, scannedLiteral, scannedLine);
+    }
+    tokens.add(EOF, "", null, line);
+    return tokens;
+  }
+
+  /*
+   * Scans up to the next token, a final EOF token is returned once the source is exhausted
+   */
+  @Override
+  public Token next() {
+    if (!scanNext())
+      return new Token(EOF, "", null, line);
+    return new Token(scannedType, scannedLexeme, scannedLiteral, scannedLine);
+  }
+
+  /*
+   * Scans up to the next token and leaves it in the 'scanned' fields, false at the end of the source
+   */
+  private boolean scanNext() {
+    scannedType = null;
+    while (scannedType == null) {
+      if (isAtEnd())
+        return false;
+
       start = current;
       scanToken();
     }
-
-    // append a final EOF token
-    tokens.add(new Token(EOF, "", null, line));
-    return tokens;
+    return true;
   }
 
   private boolean isAtEnd() {
-    return current >= source.length();
+    return !available(1);
+  }
+
+  /*
+   * Whether there are 'count' more characters from the current position on, reads more source if needed
+   */
+  private boolean available(int count) {
+    return current + count <= limit || fill(count);
+  }
+
+  private boolean fill(int count) {
+    if (input == null)
+      return false;
+
+    // the characters before the current token are never looked at again
+    System.arraycopy(buffer, start, buffer, 0, limit - start);
+    limit -= start;
+    current -= start;
+    start = 0;
+
+    try {
+      while (current + count > limit) {
+        if (limit == buffer.length) {
+          buffer = Arrays.copyOf(buffer, buffer.length * 2); // a token longer than the buffer
+        }
+        int read = input.read(buffer, limit, buffer.length - limit);
+        if (read < 0) {
+          input = null;
+          return false;
+        }
+        limit += read;
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return true;
   }
 
   private void scanToken() {
@@ -169,23 +298,33 @@ public class Scanner {
     // The next character is the closing '"'
     nextToken();
 
-    String literalValue = source.substring(start + 1, current - 1); // start and current point at the '"' respectively
+    String literalValue = lexemeTable.intern(buffer, start + 1, current - start - 2); // start and current point at the '"' respectively
     addToken(STRING, literalValue);
   }
 
   private void handleNumber() {
+    long integer = buffer[start] - '0';
     while (isDigit(peek())) {
-      nextToken();
+      integer = integer * 10 + (nextToken() - '0');
     }
 
+    boolean isInteger = true;
     if (peek() == '.' && isDigit(peek(1))) {
+      isInteger = false;
       nextToken();
       while (isDigit(peek())) {
         nextToken();
       }
     }
 
-    addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+    String lexeme = lexemeTable.intern(buffer, start, current - start);
+    Double value = numbers.get(lexeme);
+    if (value == null) {
+      // integers up to 15 digits are exact in a double, anything else needs the correct rounding of parseDouble
+      value = isInteger && current - start <= 15 ? (double) integer : Double.parseDouble(lexeme);
+      numbers.put(lexeme, value);
+    }
+    scanned(NUMBER, lexeme, value);
   }
 
   private void handleIdentifierKeyword() {
@@ -193,23 +332,64 @@ public class Scanner {
       nextToken();
     }
 
-    String identifierText = source.substring(start, current);
-    TokenType ttype = keywords.get(identifierText);
+    addToken(keywordOrIdentifier());
+  }
 
-    // if the text (e.g. 'orchid') did not match any reserved keywords, view it is
-    // as a name
-    if (ttype == null) {
-      ttype = IDENTIFIER;
+  /*
+   * Picks the keyword candidates by the first character and compares the rest in place,
+   * if the text (e.g. 'orchid') did not match any reserved keywords it is a name
+   */
+  private TokenType keywordOrIdentifier() {
+    switch (buffer[start]) {
+      case 'a':
+        return keyword(AND);
+      case 'c':
+        return keyword(CLASS);
+      case 'e':
+        return keyword(ELSE);
+      case 'f':
+        if (current - start == 3)
+          return buffer[start + 1] == 'o' ? keyword(FOR) : keyword(FUN);
+        return keyword(FALSE);
+      case 'i':
+        return current - start == 2 ? keyword(IF) : keyword(IMPORT);
+      case 'n':
+        return keyword(NIL);
+      case 'o':
+        return keyword(OR);
+      case 'p':
+        return keyword(PRINT);
+      case 'r':
+        return keyword(RETURN);
+      case 's':
+        return keyword(SUPER);
+      case 't':
+        return current - start > 1 && buffer[start + 1] == 'h' ? keyword(THIS) : keyword(TRUE);
+      case 'v':
+        return keyword(VAR);
+      case 'w':
+        return keyword(WHILE);
+      default:
+        return IDENTIFIER;
     }
+  }
 
-    addToken(ttype);
+  private TokenType keyword(TokenType candidate) {
+    String lexeme = fixedLexemes[candidate.ordinal()];
+    if (current - start != lexeme.length())
+      return IDENTIFIER;
+    for (int i = 1; i < lexeme.length(); i++) {
+      if (buffer[start + i] != lexeme.charAt(i))
+        return IDENTIFIER;
+    }
+    return candidate;
   }
 
   /*
    * Retrieve next token and advance pointer
    */
   private char nextToken() {
-    return source.charAt(current++);
+    return buffer[current++];
   }
 
   private void addToken(TokenType ttype) {
@@ -217,18 +397,27 @@ public class Scanner {
   }
 
   /*
-   * Add the current token under the pointer to our token list with the given
-   * token type
+   * Hand out the current token under the pointer with the given token type
    */
   private void addToken(TokenType ttype, Object literal) {
-    String text = source.substring(start, current);
-    tokens.add(new Token(ttype, text, literal, line));
+    String text = fixedLexemes[ttype.ordinal()];
+    if (text == null) {
+      text = lexemeTable.intern(buffer, start, current - start);
+    }
+    scanned(ttype, text, literal);
+  }
+
+  private void scanned(TokenType ttype, String lexeme, Object literal) {
+    scannedType = ttype;
+    scannedLexeme = lexeme;
+    scannedLiteral = literal;
+    scannedLine = line;
   }
 
   private boolean matchNext(char expected) {
     if (isAtEnd())
       return false;
-    if (source.charAt(current) != expected)
+    if (buffer[current] != expected)
       return false;
 
     // the next character matched!
@@ -241,13 +430,13 @@ public class Scanner {
    * Lookahead: get the next character (or EOF) without advancing the position
    */
   private char peek() {
-    return isAtEnd() ? '\0' : source.charAt(current);
+    return isAtEnd() ? '\0' : buffer[current];
   }
 
   private char peek(int offset) {
-    if (current + offset >= source.length())
+    if (!available(offset + 1))
       return '\0';
-    return source.charAt(current + offset);
+    return buffer[current + offset];
   }
 
   private boolean isDigit(char c) {
@@ -0,0 +1,58 @@
+package com.jlox.lox;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * The hidden class of a LoxInstance: maps field names to slots in the instance's value array.
+ * Adding a field moves an instance along a transition to the next shape, so all instances of a class
+ * that get the same fields in the same order share their shapes.
+ */
+class Shape {
+  private final Symbol[] names; // field name of every slot
+  private Map<Symbol, Shape> transitions = null; // created on the first transition
+
+  private Shape(Symbol[] names) {
+    this.names = names;
+  }
+
+  static Shape root() {
+    return new Shape(new Symbol[0]);
+  }
+
+  int size() {
+    return names.length;
+  }
+
+  Symbol fieldAt(int slot) {
+    return names[slot];
+  }
+
+  /*
+   * The slot of a field or -1 if instances of this shape do not have it.
+   * Instances only carry a handful of fields, so a scan of the symbols beats hashing the name.
+   */
+  int slotOf(Symbol name) {
+    for (int i = 0; i < names.length; i++) {
+      if (names[i] == name)
+        return i;
+    }
+    return -1;
+  }
+
+  Shape withField(Symbol name) {
+    if (transitions == null) {
+      transitions = new HashMap<>();
+    }
+
+    Shape next = transitions.get(name);
+    if (next == null) {
+      Symbol[] nextNames = Arrays.copyOf(names, names.length + 1);
+      nextNames[names.length] = name;
+      next = new Shape(nextNames);
+      transitions.put(name, next);
+    }
+    return next;
+  }
+}
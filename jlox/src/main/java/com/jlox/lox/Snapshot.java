@@ -0,0 +1,357 @@
+package com.jlox.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * The global environment of an Interpreter after it ran a prelude, saved to a file so the next process
+ * can restore it instead of running the prelude again. It holds every value reachable from the globals:
+ * classes, instances, functions with the environments they closed over, numbers, strings and booleans.
+ * Function declarations are stored as a FlatAst, shared declarations and shared objects stay shared.
+ *
+ * Objects are written in two parts. First every object with what its constructor needs, which only ever
+ * points to objects written before it: an instance needs its class, an environment its parent and a function
+ * its closure and receiver. Then their contents, which may point anywhere, including back to themselves.
+ *
+ * A snapshot is only used for the prelude it was taken from, it is keyed by the SHA-256 of the prelude
+ * and the interpreter version. What the prelude printed is not replayed.
+ */
+class Snapshot {
+  private static final int MAGIC = 0x4c4f5853; // "LOXS"
+  private static final int FORMAT = 4;
+
+  // kinds of objects
+  private static final byte CLASS = 0;
+  private static final byte INSTANCE = 1;
+  private static final byte ENVIRONMENT = 2;
+  private static final byte FUNCTION = 3;
+
+  // tags of values
+  private static final byte NIL = 0;
+  private static final byte FALSE = 1;
+  private static final byte TRUE = 2;
+  private static final byte NUMBER = 3;
+  private static final byte STRING = 4;
+  private static final byte OBJECT = 5;
+  private static final byte CLOCK = 6;
+
+  private static final int GLOBALS = 0; // object id of the global environment
+
+  private final Map<Object, Integer> ids = new IdentityHashMap<>();
+  private final List<Object> objects = new ArrayList<>();
+  private final Deque<Object> unvisited = new ArrayDeque<>(); // objects whose contents were not looked at yet
+  private final Map<Stmt.Fun, Integer> declarationIds = new IdentityHashMap<>();
+  private final FlatAst declarations = new FlatAst();
+
+  private Snapshot(Environment globals) {
+    ids.put(globals, GLOBALS);
+    objects.add(globals);
+  }
+
+  /*
+   * Saves the globals of 'interpreter' as the state after running 'prelude'
+   */
+  static void write(Interpreter interpreter, byte[] prelude, Path file) throws IOException {
+    Snapshot snapshot = new Snapshot(interpreter.globals);
+    snapshot.visit(interpreter.globals);
+
+    Path directory = file.toAbsolutePath().getParent();
+    Files.createDirectories(directory);
+    Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    try (OutputStream stream = Files.newOutputStream(temporary)) {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT);
+      out.writeUTF(key(prelude));
+      snapshot.write(out);
+      out.flush();
+    }
+    Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /*
+   * Defines the saved globals in 'interpreter', false if there is no snapshot of this prelude in 'file'
+   */
+  static boolean restore(Interpreter interpreter, byte[] prelude, Path file) throws IOException {
+    try (InputStream stream = Files.newInputStream(file)) {
+      DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT || !in.readUTF().equals(key(prelude)))
+        return false;
+      read(in, interpreter.globals);
+      return true;
+    } catch (NoSuchFileException e) {
+      return false;
+    }
+  }
+
+  private static String key(byte[] prelude) {
+    return ProgramCache.hash(String.format("jlox %s/snapshot %d", Lox.VERSION, FORMAT), prelude);
+  }
+
+  // --- finding the objects
+
+  /*
+   * Gives ids to everything reachable from 'globals', every object after the objects its constructor needs
+   */
+  private void visit(Environment globals) throws IOException {
+    for (Object value : globals.values().values()) {
+      visitValue(value);
+    }
+
+    while (!unvisited.isEmpty()) {
+      Object object = unvisited.poll();
+      if (object instanceof Environment) {
+        Environment env = (Environment) object;
+        for (int slot = 0; slot < env.count(); slot++) {
+          visitValue(env.getAt(0, slot));
+        }
+      } else if (object instanceof LoxClass) {
+        for (LoxFunction method : ((LoxClass) object).methods().values()) {
+          visitValue(method);
+        }
+      } else if (object instanceof LoxInstance) {
+        LoxInstance instance = (LoxInstance) object;
+        for (int slot = 0; slot < instance.shape().size(); slot++) {
+          visitValue(instance.getSlot(slot));
+        }
+      }
+    }
+  }
+
+  private void visitValue(Object value) throws IOException {
+    if (value instanceof LoxFunction || value instanceof LoxClass || value instanceof LoxInstance) {
+      id(value);
+    } else if (value != null && !(value instanceof Double || value instanceof String || value instanceof Boolean
+        || value instanceof ClockFn)) {
+      throw new IOException(String.format("Can't take a snapshot of %s", value));
+    }
+  }
+
+  private int id(Object object) {
+    Integer id = ids.get(object);
+    if (id != null)
+      return id;
+
+    if (object instanceof LoxInstance) {
+      id(((LoxInstance) object).cls());
+    } else if (object instanceof Environment) {
+      id(((Environment) object).parent());
+    } else if (object instanceof LoxFunction) {
+      LoxFunction function = (LoxFunction) object;
+      id(function.closure());
+      if (function.receiver() != null) {
+        id(function.receiver());
+      }
+      declarationId(function.declaration());
+    }
+
+    ids.put(object, objects.size());
+    objects.add(object);
+    unvisited.add(object);
+    return objects.size() - 1;
+  }
+
+  private int declarationId(Stmt.Fun declaration) {
+    Integer id = declarationIds.get(declaration);
+    if (id == null) {
+      id = declarations.size();
+      declarations.add(declaration);
+      declarationIds.put(declaration, id);
+    }
+    return id;
+  }
+
+  // --- writing
+
+  private void write(DataOutputStream out) throws IOException {
+    declarations.trim();
+    declarations.write(out);
+
+    out.writeInt(objects.size());
+    for (Object object : objects.subList(1, objects.size())) {
+      if (object instanceof LoxClass) {
+        out.writeByte(CLASS);
+        out.writeUTF(((LoxClass) object).name);
+      } else if (object instanceof LoxInstance) {
+        out.writeByte(INSTANCE);
+        out.writeInt(ids.get(((LoxInstance) object).cls()));
+      } else if (object instanceof Environment) {
+        Environment env = (Environment) object;
+        out.writeByte(ENVIRONMENT);
+        out.writeInt(ids.get(env.parent()));
+        out.writeInt(env.size());
+      } else {
+        LoxFunction function = (LoxFunction) object;
+        out.writeByte(FUNCTION);
+        out.writeInt(declarationIds.get(function.declaration()));
+        out.writeInt(ids.get(function.closure()));
+        out.writeBoolean(function.isInit());
+        out.writeBoolean(function.isMethod());
+        out.writeInt(function.receiver() == null ? -1 : ids.get(function.receiver()));
+      }
+    }
+
+    for (Object object : objects) {
+      if (object instanceof LoxClass) {
+        writeNamed(out, ((LoxClass) object).methods());
+      } else if (object instanceof LoxInstance) {
+        LoxInstance instance = (LoxInstance) object;
+        out.writeInt(instance.shape().size());
+        for (int slot = 0; slot < instance.shape().size(); slot++) {
+          out.writeUTF(instance.shape().fieldAt(slot).name);
+          writeValue(out, instance.getSlot(slot));
+        }
+      } else if (object == objects.get(GLOBALS)) {
+        writeNamed(out, ((Environment) object).values());
+      } else if (object instanceof Environment) {
+        Environment env = (Environment) object;
+        out.writeInt(env.count());
+        for (int slot = 0; slot < env.count(); slot++) {
+          writeValue(out, env.getAt(0, slot));
+        }
+      }
+    }
+  }
+
+  private void writeNamed(DataOutputStream out, Map<Symbol, ?> values) throws IOException {
+    out.writeInt(values.size());
+    for (Map.Entry<Symbol, ?> entry : values.entrySet()) {
+      out.writeUTF(entry.getKey().name);
+      writeValue(out, entry.getValue());
+    }
+  }
+
+  private void writeValue(DataOutputStream out, Object value) throws IOException {
+    if (value == null) {
+      out.writeByte(NIL);
+    } else if (value instanceof Boolean) {
+      out.writeByte((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof Double) {
+      out.writeByte(NUMBER);
+      out.writeDouble((Double) value);
+    } else if (value instanceof String) {
+      byte[] utf8 = ((String) value).getBytes(StandardCharsets.UTF_8); // writeUTF stops at 64 KB
+      out.writeByte(STRING);
+      out.writeInt(utf8.length);
+      out.write(utf8);
+    } else if (value instanceof ClockFn) {
+      out.writeByte(CLOCK);
+    } else {
+      out.writeByte(OBJECT);
+      out.writeInt(ids.get(value));
+    }
+  }
+
+  // --- reading
+
+  private static void read(DataInputStream in, Environment globals) throws IOException {
+    FlatAst declarations = FlatAst.read(in);
+    Stmt.Fun[] functions = new Stmt.Fun[declarations.size()];
+
+    Map<LoxClass, Map<Symbol, LoxFunction>> methods = new IdentityHashMap<>(); // filled in once the functions exist
+    Object[] objects = new Object[in.readInt()];
+    objects[GLOBALS] = globals;
+    for (int id = 1; id < objects.length; id++) {
+      byte kind = in.readByte();
+      switch (kind) {
+        case CLASS: {
+          Map<Symbol, LoxFunction> classMethods = new HashMap<>();
+          LoxClass cls = new LoxClass(in.readUTF(), classMethods);
+          methods.put(cls, classMethods);
+          objects[id] = cls;
+          break;
+        }
+        case INSTANCE:
+          objects[id] = new LoxInstance((LoxClass) objects[in.readInt()]);
+          break;
+        case ENVIRONMENT:
+          objects[id] = new Environment((Environment) objects[in.readInt()], in.readInt());
+          break;
+        case FUNCTION: {
+          int declaration = in.readInt();
+          if (functions[declaration] == null) {
+            functions[declaration] = (Stmt.Fun) declarations.statement(declaration);
+          }
+          Environment closure = (Environment) objects[in.readInt()];
+          boolean isInit = in.readBoolean();
+          boolean isMethod = in.readBoolean();
+          int receiver = in.readInt();
+          objects[id] = new LoxFunction(functions[declaration], closure, isInit, isMethod,
+              receiver < 0 ? null : (LoxInstance) objects[receiver]);
+          break;
+        }
+        default:
+          throw new IOException(String.format("Unknown object kind %d", kind));
+      }
+    }
+
+    for (Object object : objects) {
+      if (object instanceof LoxClass) {
+        Map<Symbol, LoxFunction> classMethods = methods.get(object);
+        for (int count = in.readInt(); count > 0; count--) {
+          classMethods.put(Symbol.of(in.readUTF()), (LoxFunction) readValue(in, objects));
+        }
+      } else if (object instanceof LoxInstance) {
+        LoxInstance instance = (LoxInstance) object;
+        Shape shape = instance.cls().rootShape;
+        int fields = in.readInt();
+        for (int slot = 0; slot < fields; slot++) {
+          shape = shape.withField(Symbol.of(in.readUTF()));
+          instance.setSlot(shape, slot, readValue(in, objects));
+        }
+      } else if (object == globals) {
+        for (int count = in.readInt(); count > 0; count--) {
+          Symbol name = Symbol.of(in.readUTF());
+          globals.define(name, readValue(in, objects));
+        }
+      } else if (object instanceof Environment) {
+        Environment env = (Environment) object;
+        for (int count = in.readInt(); count > 0; count--) {
+          env.define(readValue(in, objects));
+        }
+      }
+    }
+  }
+
+  private static Object readValue(DataInputStream in, Object[] objects) throws IOException {
+    byte tag = in.readByte();
+    switch (tag) {
+      case NIL:
+        return null;
+      case FALSE:
+        return false;
+      case TRUE:
+        return true;
+      case NUMBER:
+        return in.readDouble();
+      case STRING: {
+        byte[] utf8 = new byte[in.readInt()];
+        in.readFully(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+      }
+      case CLOCK:
+        return new ClockFn();
+      case OBJECT:
+        return objects[in.readInt()];
+      default:
+        throw new IOException(String.format("Unknown value tag %d", tag));
+    }
+  }
+}
@@ -13,6 +13,7 @@ abstract class Stmt {
     R visitPrintStmt(Print stmt);
     R visitReturnStmt(Return stmt);
     R visitVarStmt(Var stmt);
+    R visitImportStmt(Import stmt);
   }
   static class Block extends Stmt {
     Block(List<Stmt> statements) {
@@ -25,6 +26,9 @@ abstract class Stmt {
     }
 
     final List<Stmt> statements;
+    int frameSize = 0;
+    boolean reusable = false;
+    boolean onStack = false;
   }
   static class Class extends Stmt {
     Class(Token name, List<Stmt.Fun> methods) {
@@ -67,6 +71,12 @@ abstract class Stmt {
     final Token name;
     final List<Token> params;
     final List<Stmt> body;
+    int frameSize = 0;
+    boolean onStack = false;
+    long invocations = 0;
+    long nextPromotion = 1;
+    StmtNode compiledBody = null;
+    JitCode jitCode = null;
   }
   static class If extends Stmt {
     If(Expr cond, Stmt thenBranch, Stmt elseBranch) {
@@ -97,6 +107,8 @@ abstract class Stmt {
 
     final Expr cond;
     final Stmt body;
+    int backEdges = 0;
+    StmtNode compiledLoop = null;
   }
   static class Print extends Stmt {
     Print(Expr expression) {
@@ -139,5 +151,21 @@ abstract class Stmt {
     final Expr initializer;
   }
 
+  static class Import extends Stmt {
+    Import(Token keyword, Token path) {
+      this.keyword = keyword;
+      this.path = path;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitImportStmt(this);
+    }
+
+    final Token keyword;
+    final Token path;
+    Module module = null;
+  }
+
   abstract <R> R accept(Visitor<R> visitor);
 }
@@ -0,0 +1,307 @@
+package com.jlox.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Executable form of a statement built by the NodeCompiler, see ExprNode
+ */
+abstract class StmtNode implements NodeParent {
+
+  abstract Completion execute(Environment env);
+
+  @Override
+  public void replaceChild(ExprNode oldChild, ExprNode newChild) {
+    throw new IllegalStateException(String.format("%s has no expression children", getClass().getSimpleName()));
+  }
+
+  /*
+   * Statements executed one after the other in the same environment, e.g. a function body
+   */
+  static class Sequence extends StmtNode {
+    Sequence(StmtNode[] statements) {
+      this.statements = statements;
+    }
+
+    @Override
+    Completion execute(Environment env) {
+      for (StmtNode stmt : statements) {
+        if (stmt.execute(env) == Completion.RETURN)
+          return Completion.RETURN;
+      }
+      return Completion.NORMAL;
+    }
+
+    final StmtNode[] statements;
+  }
+
+  /*
+   * Takes its frame from the ValueStack or reuses it like Interpreter.visitBlockStmt, depending on what the
+   * closures in it can reach
+   */
+  static class Block extends StmtNode {
+    Block(StmtNode[] statements, int frameSize, boolean reusable, ValueStack stack) {
+      this.statements = statements;
+      this.frameSize = frameSize;
+      this.reusable = reusable;
+      this.stack = stack;
+    }
+
+    @Override
+    Completion execute(Environment env) {
+      if (stack != null) {
+        try {
+          return run(stack.push(env, frameSize));
+        } finally {
+          stack.pop();
+        }
+      }
+
+      Environment blockEnv = reusable ? env.child(frameSize) : new Environment(env, frameSize);
+      Completion completion = run(blockEnv);
+      if (reusable)
+        env.park(blockEnv);
+      return completion;
+    }
+
+    private Completion run(Environment blockEnv) {
+      for (StmtNode stmt : statements) {
+        if (stmt.execute(blockEnv) == Completion.RETURN)
+          return Completion.RETURN;
+      }
+      return Completion.NORMAL;
+    }
+
+    final StmtNode[] statements;
+    final int frameSize;
+    final boolean reusable;
+    final ValueStack stack; // null if a closure can reach the frame
+  }
+
+  static class Expression extends StmtNode {
+    Expression(ExprNode expression) {
+      this.expression = adopt(expression);
+    }
+
+    @Override
+    Completion execute(Environment env) {
+      expression.evaluate(env);
+      return Completion.NORMAL;
+    }
+
+    @Override
+    public void replaceChild(ExprNode oldChild, ExprNode newChild) {
+      if (expression == oldChild)
+        expression = newChild;
+    }
+
+    ExprNode expression;
+  }
+
+  static class Print extends StmtNode {
+    Print(ExprNode expression) {
+      this.expression = adopt(expression);
+    }
+
+    @Override
+    Completion execute(Environment env) {
+      System.out.println(expression.evaluate(env));
+      return Completion.NORMAL;
+    }
+
+    @Override
+    public void replaceChild(ExprNode oldChild, ExprNode newChild) {
+      if (expression == oldChild)
+        expression = newChild;
+    }
+
+    ExprNode expression;
+  }
+
+  static class If extends StmtNode {
+    If(ExprNode cond, StmtNode thenBranch, StmtNode elseBranch) {
+      this.cond = adopt(cond);
+      this.thenBranch = thenBranch;
+      this.elseBranch = elseBranch;
+    }
+
+    @Override
+    Completion execute(Environment env) {
+      if (ExprNode.isTruthy(cond.evaluate(env))) {
+        return thenBranch.execute(env);
+      } else if (elseBranch != null) {
+        return elseBranch.execute(env);
+      }
+      return Completion.NORMAL;
+    }
+
+    @Override
+    public void replaceChild(ExprNode oldChild, ExprNode newChild) {
+      if (cond == oldChild)
+        cond = newChild;
+    }
+
+    ExprNode cond;
+    final StmtNode thenBranch;
+    final StmtNode elseBranch;
+  }
+
+  static class While extends StmtNode {
+    While(ExprNode cond, StmtNode body) {
+      this.cond = adopt(cond);
+      this.body = body;
+    }
+
+    @Override
+    Completion execute(Environment env) {
+      while (ExprNode.isTruthy(cond.evaluate(env))) {
+        if (body.execute(env) == Completion.RETURN)
+          return Completion.RETURN;
+      }
+      return Completion.NORMAL;
+    }
+
+    @Override
+    public void replaceChild(ExprNode oldChild, ExprNode newChild) {
+      if (cond == oldChild)
+        cond = newChild;
+    }
+
+    ExprNode cond;
+    final StmtNode body;
+  }
+
+  static class Return extends StmtNode {
+    Return(Interpreter interpreter, ExprNode value) {
+      this.interpreter = interpreter;
+      this.value = adopt(value);
+    }
+
+    @Override
+    Completion execute(Environment env) {
+      interpreter.returnValue = value == null ? null : value.evaluate(env); // picked up by LoxFunction.invoke()
+      return Completion.RETURN;
+    }
+
+    @Override
+    public void replaceChild(ExprNode oldChild, ExprNode newChild) {
+      if (value == oldChild)
+        value = newChild;
+    }
+
+    final Interpreter interpreter;
+    ExprNode value;
+  }
+
+  static class DefineLocal extends StmtNode {
+    DefineLocal(ExprNode initializer) {
+      this.initializer = adopt(initializer);
+    }
+
+    @Override
+    Completion execute(Environment env) {
+      env.define(initializer == null ? null : initializer.evaluate(env));
+      return Completion.NORMAL;
+    }
+
+    @Override
+    public void replaceChild(ExprNode oldChild, ExprNode newChild) {
+      if (initializer == oldChild)
+        initializer = newChild;
+    }
+
+    ExprNode initializer;
+  }
+
+  static class DefineGlobal extends StmtNode {
+    DefineGlobal(Symbol name, ExprNode initializer) {
+      this.name = name;
+      this.initializer = adopt(initializer);
+    }
+
+    @Override
+    Completion execute(Environment env) {
+      env.define(name, initializer == null ? null : initializer.evaluate(env));
+      return Completion.NORMAL;
+    }
+
+    @Override
+    public void replaceChild(ExprNode oldChild, ExprNode newChild) {
+      if (initializer == oldChild)
+        initializer = newChild;
+    }
+
+    final Symbol name;
+    ExprNode initializer;
+  }
+
+  static class Fun extends StmtNode {
+    Fun(Stmt.Fun declaration, boolean isGlobal) {
+      this.declaration = declaration;
+      this.isGlobal = isGlobal;
+    }
+
+    @Override
+    Completion execute(Environment env) {
+      LoxFunction fun = new LoxFunction(declaration, env, false);
+      if (isGlobal) {
+        env.define(declaration.name.symbol, fun);
+      } else {
+        env.define(fun);
+      }
+      return Completion.NORMAL;
+    }
+
+    final Stmt.Fun declaration;
+    final boolean isGlobal;
+  }
+
+  static class Class extends StmtNode {
+    Class(Stmt.Class declaration, boolean isGlobal) {
+      this.declaration = declaration;
+      this.isGlobal = isGlobal;
+    }
+
+    @Override
+    Completion execute(Environment env) {
+      Map<Symbol, LoxFunction> methods = new HashMap<>();
+      for (Stmt.Fun func : declaration.methods) {
+        methods.put(func.name.symbol, new LoxFunction(func, env, func.name.symbol == Symbol.INIT, true, null));
+      }
+
+      LoxClass cls = new LoxClass(declaration.name.lexeme, methods);
+      if (isGlobal) {
+        env.define(declaration.name.symbol, cls);
+      } else {
+        env.define(cls);
+      }
+      return Completion.NORMAL;
+    }
+
+    final Stmt.Class declaration;
+    final boolean isGlobal;
+  }
+
+  /*
+   * Compiles the module when it runs, modules that import each other would compile each other forever otherwise
+   */
+  static class Import extends StmtNode {
+    Import(Module module, Interpreter interpreter) {
+      this.module = module;
+      this.interpreter = interpreter;
+    }
+
+    @Override
+    Completion execute(Environment env) {
+      if (module.executed)
+        return Completion.NORMAL;
+
+      module.executed = true;
+      new NodeCompiler(interpreter).compile(module.statements).execute(env);
+      return Completion.NORMAL;
+    }
+
+    final Module module;
+    final Interpreter interpreter;
+  }
+}
@@ -0,0 +1,39 @@
+package com.jlox.lox;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * An interned name. There is exactly one Symbol per spelling, so symbols are compared by reference
+ * and hash by a value computed once. Environments, fields and methods are keyed by symbols.
+ */
+final class Symbol {
+  private static final ConcurrentHashMap<String, Symbol> table = new ConcurrentHashMap<>();
+
+  static final Symbol THIS = of("this");
+  static final Symbol INIT = of("init");
+
+  final String name;
+  private final int hash;
+
+  private Symbol(String name) {
+    this.name = name;
+    this.hash = name.hashCode();
+  }
+
+  static Symbol of(String name) {
+    Symbol symbol = table.get(name);
+    if (symbol != null)
+      return symbol;
+    return table.computeIfAbsent(name, Symbol::new);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
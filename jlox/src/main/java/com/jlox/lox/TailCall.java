@@ -0,0 +1,22 @@
+package com.jlox.lox;
+
+import java.util.List;
+
+/*
+ * A call of a Lox function whose value a 'return' hands back as it is. Such a call is not made where it appears,
+ * it becomes the value of the returning function instead, and LoxFunction.invoke() makes it once that function's
+ * frame is gone. A chain of tail calls, e.g. a tail-recursive loop, runs in constant Java stack.
+ *
+ * Only LoxFunction.invoke() ever sees one, a tail call is always the value of a 'return'.
+ */
+final class TailCall {
+  final LoxFunction function;
+  final LoxInstance receiver; // 'this' of a method, null for functions
+  final List<Object> args;
+
+  TailCall(LoxFunction function, LoxInstance receiver, List<Object> args) {
+    this.function = function;
+    this.receiver = receiver;
+    this.args = args;
+  }
+}
@@ -0,0 +1,117 @@
+package com.jlox.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Decides how a function or loop is executed based on how often it ran. Everything starts out in the
+ * tree-walking Interpreter, which costs nothing up front.
+ *
+ * - functions called 'closureThreshold' times get their body compiled by the NodeCompiler
+ * - functions called 'jitThreshold' times get compiled to JVM bytecode by the JitCompiler
+ * - loops that went around 'loopThreshold' times continue as nodes of the NodeCompiler
+ *
+ * At most 'maxCompiled' functions keep their JVM bytecode, when another one gets hot the one that was called
+ * least since its promotion is demoted to compiled nodes again. It can be promoted again once it gets hot.
+ *
+ * Thresholds are read from the system properties jlox.tier.closureThreshold, jlox.tier.jitThreshold,
+ * jlox.tier.loopThreshold and jlox.tier.maxCompiled.
+ */
+class TierManager {
+
+  final int closureThreshold = Integer.getInteger("jlox.tier.closureThreshold", 100);
+  final int jitThreshold = Integer.getInteger("jlox.tier.jitThreshold", 1000);
+  final int loopThreshold = Integer.getInteger("jlox.tier.loopThreshold", 1000);
+  final int maxCompiled = Integer.getInteger("jlox.tier.maxCompiled", 256);
+
+  /*
+   * A function running as JVM bytecode and its invocation count when it got there
+   */
+  private static class Compiled {
+    final Stmt.Fun declaration;
+    final long invocationsAtPromotion;
+
+    Compiled(Stmt.Fun declaration) {
+      this.declaration = declaration;
+      this.invocationsAtPromotion = declaration.invocations;
+    }
+  }
+
+  private final Interpreter interpreter;
+  private final List<Compiled> compiled = new ArrayList<>();
+
+  TierManager(Interpreter interpreter) {
+    this.interpreter = interpreter;
+  }
+
+  /*
+   * Called once a function reached the invocation count it was waiting for, moves it up as far as its count allows.
+   * Returns the invocation count at which to call again. Counts belong to the declaration, so closures created
+   * anew on every call of their enclosing function get hot together.
+   */
+  long promote(LoxFunction function) {
+    Stmt.Fun declaration = function.declaration();
+
+    if (declaration.compiledBody == null && declaration.jitCode == null) {
+      if (declaration.invocations < closureThreshold)
+        return closureThreshold;
+
+      new NodeCompiler(interpreter).compileFunction(declaration);
+      log("Promoted %s to compiled nodes", declaration.name.lexeme);
+    }
+
+    if (declaration.jitCode == null) {
+      if (declaration.invocations < jitThreshold)
+        return jitThreshold;
+
+      declaration.jitCode = JitCompiler.compile(declaration, function.isMethod(), interpreter);
+      if (declaration.jitCode == null)
+        return Long.MAX_VALUE; // stays with the nodes
+
+      log("Promoted %s to JVM bytecode", declaration.name.lexeme);
+      if (compiled.size() >= maxCompiled) {
+        demoteColdest();
+      }
+      compiled.add(new Compiled(declaration));
+    }
+
+    return Long.MAX_VALUE;
+  }
+
+  private void demoteColdest() {
+    Compiled coldest = compiled.get(0);
+    for (Compiled candidate : compiled) {
+      if (callsSincePromotion(candidate) < callsSincePromotion(coldest)) {
+        coldest = candidate;
+      }
+    }
+
+    compiled.remove(coldest);
+    Stmt.Fun declaration = coldest.declaration;
+    declaration.jitCode = null;
+    declaration.nextPromotion = declaration.invocations + jitThreshold;
+    log("Demoted %s to compiled nodes", declaration.name.lexeme);
+  }
+
+  private static long callsSincePromotion(Compiled entry) {
+    return entry.declaration.invocations - entry.invocationsAtPromotion;
+  }
+
+  /*
+   * Called on every back edge of an interpreted loop, returns the compiled loop once the loop is hot
+   */
+  StmtNode promote(Stmt.While loop, boolean isGlobalScope) {
+    if (++loop.backEdges < loopThreshold)
+      return null;
+
+    loop.compiledLoop = new NodeCompiler(interpreter).compileLoop(loop, isGlobalScope);
+    log("Promoted a loop to compiled nodes");
+    return loop.compiledLoop;
+  }
+
+  private void log(String message, Object... args) {
+    if (interpreter.debugMode) {
+      System.out.println(String.format(message, args));
+    }
+  }
+}
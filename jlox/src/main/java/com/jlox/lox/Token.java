@@ -9,12 +9,14 @@ class Token {
   final String lexeme;
   final Object literal;
   final int line;
+  final Symbol symbol; // the interned name of identifiers and 'this', null for other tokens
 
   Token(TokenType type, String lexeme, Object literal, int line) {
     this.type = type;
     this.lexeme = lexeme;
     this.literal = literal;
     this.line = line;
+    this.symbol = type == TokenType.IDENTIFIER || type == TokenType.THIS ? Symbol.of(lexeme) : null;
   }
 
   public String toString() {
@@ -0,0 +1,101 @@
+package com.jlox.lox;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/*
+ * All tokens of a program packed into parallel arrays instead of one Token object each: the type, the line and
+ * an index into side tables that hold every distinct lexeme and its literal once. A token takes 9 bytes.
+ *
+ * The Scanner interns its lexemes, so the side tables are keyed by identity.
+ */
+class TokenBuffer {
+  private static final TokenType[] TYPES = TokenType.values();
+
+  private byte[] types = new byte[1024];
+  private int[] lines = new int[1024];
+  private int[] spellings = new int[1024]; // index into lexemes and literals
+  private int size = 0;
+
+  private String[] lexemes = new String[64];
+  private Object[] literals = new Object[64];
+  private final Map<String, Integer> spellingIndex = new IdentityHashMap<>();
+
+  void add(TokenType type, String lexeme, Object literal, int line) {
+    if (size == types.length) {
+      types = Arrays.copyOf(types, size * 2);
+      lines = Arrays.copyOf(lines, size * 2);
+      spellings = Arrays.copyOf(spellings, size * 2);
+    }
+
+    Integer spelling = spellingIndex.get(lexeme);
+    if (spelling == null) {
+      spelling = spellingIndex.size();
+      if (spelling == lexemes.length) {
+        lexemes = Arrays.copyOf(lexemes, spelling * 2);
+        literals = Arrays.copyOf(literals, spelling * 2);
+      }
+      lexemes[spelling] = lexeme;
+      literals[spelling] = literal;
+      spellingIndex.put(lexeme, spelling);
+    }
+
+    types[size] = (byte) type.ordinal();
+    lines[size] = line;
+    spellings[size] = spelling;
+    size++;
+  }
+
+  int size() {
+    return size;
+  }
+
+  TokenType type(int index) {
+    return TYPES[types[index]];
+  }
+
+  Token token(int index) {
+    int spelling = spellings[index];
+    return new Token(type(index), lexemes[spelling], literals[spelling], lines[index]);
+  }
+
+  /*
+   * Walks the tokens from the start, a Token object is created at most once per position
+   */
+  TokenCursor cursor() {
+    return new TokenCursor() {
+      private int position = 0;
+      private Token current = null;
+      private Token previous = null;
+
+      @Override
+      public TokenType type() {
+        return TokenBuffer.this.type(position);
+      }
+
+      @Override
+      public Token current() {
+        if (current == null) {
+          current = token(position);
+        }
+        return current;
+      }
+
+      @Override
+      public Token previous() {
+        if (previous == null) {
+          previous = token(position - 1);
+        }
+        return previous;
+      }
+
+      @Override
+      public void advance() {
+        previous = current;
+        current = null;
+        position++;
+      }
+    };
+  }
+}
@@ -0,0 +1,15 @@
+package com.jlox.lox;
+
+/*
+ * The Parser's position in the tokens of a program: the token under the cursor and the one before it.
+ * Token objects are only asked for when the Parser keeps a token in the tree, everything else goes by type.
+ */
+interface TokenCursor {
+  TokenType type(); // type of the token under the cursor
+
+  Token current();
+
+  Token previous();
+
+  void advance(); // only called before reaching EOF
+}
@@ -0,0 +1,9 @@
+package com.jlox.lox;
+
+/*
+ * Hands out the tokens of a program one after another, the Parser pulls them as it needs them.
+ * The last token is EOF.
+ */
+interface TokenSource {
+  Token next();
+}
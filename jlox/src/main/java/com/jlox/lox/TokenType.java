@@ -8,7 +8,7 @@ enum TokenType {
 
   IDENTIFIER, STRING, NUMBER,
 
-  AND, CLASS, ELSE, TRUE, FALSE, FUN, FOR, IF, NIL, OR, PRINT, RETURN, SUPER, THIS, VAR, WHILE, EOF,
+  AND, CLASS, ELSE, TRUE, FALSE, FUN, FOR, IF, NIL, OR, PRINT, RETURN, SUPER, THIS, VAR, WHILE, IMPORT, EOF,
 
   BANG, BANG_EQUAL, EQUAL, EQUAL_EQUAL, LESS, LESS_EQUAL, GREATER, GREATER_EQUAL,
 
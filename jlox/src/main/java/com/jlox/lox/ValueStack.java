@@ -0,0 +1,49 @@
+package com.jlox.lox;
+
+import java.util.Arrays;
+
+/*
+ * The frames of the calls and blocks whose locals no closure can reach, see Resolver.frameOnStack(). Such a frame
+ * is only used until its call or block ends, so frames are taken and given back in stack order and every depth keeps
+ * its Environment and slots for the next call that gets there. Once the stack is as deep as the program gets,
+ * calls and blocks don't allocate anything.
+ *
+ * Every Interpreter has its own and runs on one thread, so this is a stack per thread.
+ */
+class ValueStack {
+
+  private Environment[] frames = new Environment[64];
+  private int top = 0;
+
+  /*
+   * A frame with 'size' empty slots below 'parent', given back with pop() when its call or block ends
+   */
+  Environment push(Environment parent, int size) {
+    if (top == frames.length) {
+      frames = Arrays.copyOf(frames, top * 2);
+    }
+
+    Environment frame = frames[top];
+    if (frame == null) {
+      frame = new Environment(parent, size);
+      frames[top] = frame;
+    } else {
+      frame.reuse(parent, size);
+    }
+    top++;
+    return frame;
+  }
+
+  void pop() {
+    frames[--top].clear();
+  }
+
+  /*
+   * Gives back the frames a runtime error left behind, e.g. of a call whose arguments failed to evaluate
+   */
+  void reset() {
+    while (top > 0) {
+      pop();
+    }
+  }
+}
@@ -13,29 +13,31 @@ public class GenerateAst {
     }
     String outputDir = args[0];
 
+    // fields after a ';' are not constructor parameters but mutable slots filled in by the Resolver and the passes after it
     defineAst(outputDir, "Expr", Arrays.asList(
-        "Assign: Token name, Expr value",
-        "Binary: Expr left, Token operator, Expr right",
-        "Call: Expr callee, Token parenthesis, List<Expr> args", // the parenthesis token is stored for debugging info
-        "Get: Expr object, Token name",
+        "Assign: Token name, Expr value; int depth = -1, int slot = -1",
+        "Binary: Expr left, Token operator, Expr right; boolean numeric = false",
+        "Call: Expr callee, Token parenthesis, List<Expr> args; boolean tailCall = false", // the parenthesis token is stored for debugging info
+        "Get: Expr object, Token name; PropertyCache cache = new PropertyCache()",
         "Grouping: Expr expression",
         "Literal: Object value",
         "Logical: Expr left, Token operator, Expr right", // special case of Binary
-        "Set: Expr object, Token name, Expr value",
-        "This: Token keyword",
-        "Unary: Token operator, Expr right",
-        "Variable: Token name"));
+        "Set: Expr object, Token name, Expr value; PropertyCache cache = new PropertyCache()",
+        "This: Token keyword; int depth = -1, int slot = -1",
+        "Unary: Token operator, Expr right; boolean numeric = false",
+        "Variable: Token name; int depth = -1, int slot = -1, boolean numeric = false"));
 
     defineAst(outputDir, "Stmt", Arrays.asList(
-        "Block: List<Stmt> statements",
+        "Block: List<Stmt> statements; int frameSize = 0, boolean reusable = false, boolean onStack = false",
         "Class: Token name, List<Stmt.Fun> methods",
         "Expression: Expr expression",
-        "Fun: Token name, List<Token> params, List<Stmt> body",
+        "Fun: Token name, List<Token> params, List<Stmt> body; int frameSize = 0, boolean onStack = false, long invocations = 0, long nextPromotion = 1, StmtNode compiledBody = null, JitCode jitCode = null",
         "If: Expr cond, Stmt thenBranch, Stmt elseBranch",
-        "While: Expr cond, Stmt body",
+        "While: Expr cond, Stmt body; int backEdges = 0, StmtNode compiledLoop = null",
         "Print: Expr expression",
         "Return: Token keyword, Expr value",
-        "Var: Token name, Expr initializer"));
+        "Var: Token name, Expr initializer",
+        "Import: Token keyword, Token path; Module module = null"));
   }
 
   /*
@@ -55,8 +57,9 @@ public class GenerateAst {
 
     for (String type : types) {
       String className = type.split(":")[0].trim();
-      String fields = type.split(":")[1].trim();
-      defineType(writer, baseName, className, fields);
+      String[] fields = type.split(":")[1].split(";");
+      String resolvedFields = fields.length > 1 ? fields[1].trim() : null;
+      defineType(writer, baseName, className, fields[0].trim(), resolvedFields);
     }
 
     // define the accept method for this type
@@ -68,7 +71,8 @@ public class GenerateAst {
 
   }
 
-  private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
+  private static void defineType(PrintWriter writer, String baseName, String className, String fieldList,
+      String resolvedFieldList) {
     writer.println("  static class " + className + " extends " + baseName + " {");
 
     // Constructor.
@@ -97,6 +101,12 @@ public class GenerateAst {
       writer.println("    final " + field + ";");
     }
 
+    if (resolvedFieldList != null) {
+      for (String field : resolvedFieldList.split(", ")) {
+        writer.println("    " + field + ";");
+      }
+    }
+
     writer.println("  }");
   }
 
@@ -0,0 +1,120 @@
+package com.jlox.vm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * A sequence of bytecode together with its constant pool and the source line of every byte
+ */
+public class Chunk {
+  byte[] code = new byte[16];
+  int[] lines = new int[16];
+  Object[] constants = new Object[8];
+  private int count = 0;
+  private int constantCount = 0;
+  private final Map<Object, Integer> constantIndex = new HashMap<>(); // reuse slots for equal constants
+
+  public void write(int b, int line) {
+    if (count == code.length) {
+      code = Arrays.copyOf(code, count * 2);
+      lines = Arrays.copyOf(lines, count * 2);
+    }
+
+    code[count] = (byte) b;
+    lines[count] = line;
+    count++;
+  }
+
+  public int count() {
+    return count;
+  }
+
+  public void patch(int offset, int b) {
+    code[offset] = (byte) b;
+  }
+
+  public int addConstant(Object value) {
+    Integer existing = constantIndex.get(value);
+    if (existing != null)
+      return existing;
+
+    if (constantCount == constants.length) {
+      constants = Arrays.copyOf(constants, constantCount * 2);
+    }
+
+    constants[constantCount] = value;
+    constantIndex.put(value, constantCount);
+    return constantCount++;
+  }
+
+  public String disassemble(String name) {
+    StringBuilder sb = new StringBuilder(String.format("== %s ==%n", name));
+    int offset = 0;
+    while (offset < count) {
+      offset = disassembleInstruction(sb, offset);
+    }
+
+    for (int i = 0; i < constantCount; i++) {
+      if (constants[i] instanceof ObjFunction) {
+        ObjFunction fn = (ObjFunction) constants[i];
+        sb.append(fn.chunk.disassemble(fn.toString()));
+      }
+    }
+    return sb.toString();
+  }
+
+  private int disassembleInstruction(StringBuilder sb, int offset) {
+    byte op = code[offset];
+    sb.append(String.format("%04d %4d %-14s", offset, lines[offset], OpCode.NAMES[op]));
+
+    switch (op) {
+      case OpCode.CONSTANT:
+      case OpCode.GET_GLOBAL:
+      case OpCode.DEFINE_GLOBAL:
+      case OpCode.SET_GLOBAL:
+      case OpCode.GET_PROPERTY:
+      case OpCode.SET_PROPERTY:
+      case OpCode.CLASS:
+      case OpCode.METHOD: {
+        int index = readShort(offset + 1);
+        sb.append(String.format("%4d '%s'%n", index, constants[index]));
+        return offset + 3;
+      }
+      case OpCode.GET_LOCAL:
+      case OpCode.SET_LOCAL:
+      case OpCode.GET_UPVALUE:
+      case OpCode.SET_UPVALUE:
+      case OpCode.CALL:
+      case OpCode.TAIL_CALL:
+        sb.append(String.format("%4d%n", code[offset + 1] & 0xff));
+        return offset + 2;
+      case OpCode.JUMP:
+      case OpCode.JUMP_IF_FALSE:
+        sb.append(String.format("%4d -> %d%n", offset, offset + 3 + readShort(offset + 1)));
+        return offset + 3;
+      case OpCode.LOOP:
+        sb.append(String.format("%4d -> %d%n", offset, offset + 3 - readShort(offset + 1)));
+        return offset + 3;
+      case OpCode.CLOSURE: {
+        int index = readShort(offset + 1);
+        ObjFunction fn = (ObjFunction) constants[index];
+        sb.append(String.format("%4d %s%n", index, fn));
+        offset += 3;
+        for (int i = 0; i < fn.upvalueCount; i++) {
+          boolean isLocal = code[offset] == 1;
+          sb.append(String.format("%04d    |   %s %d%n", offset, isLocal ? "local" : "upvalue", code[offset + 1] & 0xff));
+          offset += 2;
+        }
+        return offset;
+      }
+      default:
+        sb.append(String.format("%n"));
+        return offset + 1;
+    }
+  }
+
+  private int readShort(int offset) {
+    return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+  }
+}
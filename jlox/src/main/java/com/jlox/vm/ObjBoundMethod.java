@@ -0,0 +1,19 @@
+package com.jlox.vm;
+
+/*
+ * A method that was accessed on an instance, e.g. 'var m = obj.method;'
+ */
+class ObjBoundMethod {
+  final Object receiver;
+  final ObjClosure method;
+
+  ObjBoundMethod(Object receiver, ObjClosure method) {
+    this.receiver = receiver;
+    this.method = method;
+  }
+
+  @Override
+  public String toString() {
+    return method.toString();
+  }
+}
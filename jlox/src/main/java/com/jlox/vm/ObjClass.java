@@ -0,0 +1,18 @@
+package com.jlox.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class ObjClass {
+  final String name;
+  final Map<String, ObjClosure> methods = new HashMap<>();
+
+  ObjClass(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("<%s cls>", name);
+  }
+}
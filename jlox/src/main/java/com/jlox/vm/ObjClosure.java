@@ -0,0 +1,19 @@
+package com.jlox.vm;
+
+/*
+ * Runtime representation of a function value together with the variables it captured
+ */
+class ObjClosure {
+  final ObjFunction function;
+  final ObjUpvalue[] upvalues;
+
+  ObjClosure(ObjFunction function) {
+    this.function = function;
+    this.upvalues = new ObjUpvalue[function.upvalueCount];
+  }
+
+  @Override
+  public String toString() {
+    return function.toString();
+  }
+}
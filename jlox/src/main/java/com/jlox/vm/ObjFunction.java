@@ -0,0 +1,23 @@
+package com.jlox.vm;
+
+/*
+ * A compiled function: its bytecode and the number of arguments and upvalues it expects
+ */
+public class ObjFunction {
+  public final String name;
+  public final int arity;
+  public final Chunk chunk = new Chunk();
+  public int upvalueCount = 0;
+
+  public ObjFunction(String name, int arity) {
+    this.name = name;
+    this.arity = arity;
+  }
+
+  @Override
+  public String toString() {
+    if (name == null)
+      return "<script>";
+    return String.format("<fn %s>", name);
+  }
+}
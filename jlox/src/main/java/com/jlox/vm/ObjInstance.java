@@ -0,0 +1,18 @@
+package com.jlox.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class ObjInstance {
+  final ObjClass cls;
+  final Map<String, Object> fields = new HashMap<>();
+
+  ObjInstance(ObjClass cls) {
+    this.cls = cls;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("<%s instance>", cls.name);
+  }
+}
@@ -0,0 +1,23 @@
+package com.jlox.vm;
+
+/*
+ * A function implemented in Java, e.g. clock()
+ */
+class ObjNative {
+  interface NativeFn {
+    Object call(Object[] args, int offset);
+  }
+
+  final int arity;
+  final NativeFn fn;
+
+  ObjNative(int arity, NativeFn fn) {
+    this.arity = arity;
+    this.fn = fn;
+  }
+
+  @Override
+  public String toString() {
+    return "<native fn>";
+  }
+}
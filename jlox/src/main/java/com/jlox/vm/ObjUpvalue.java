@@ -0,0 +1,16 @@
+package com.jlox.vm;
+
+/*
+ * A captured variable. While the variable is still alive on the stack the upvalue points at its slot,
+ * once the variable goes out of scope the value is moved into the upvalue itself.
+ */
+class ObjUpvalue {
+  int slot; // stack slot of an open upvalue, -1 once closed
+  Object closed;
+  ObjUpvalue next; // next open upvalue further down the stack
+
+  ObjUpvalue(int slot, ObjUpvalue next) {
+    this.slot = slot;
+    this.next = next;
+  }
+}
@@ -0,0 +1,456 @@
+package com.jlox.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Stack-based virtual machine executing the bytecode produced by the BytecodeCompiler.
+ * Call frames are kept in parallel arrays so calls and returns don't allocate.
+ */
+public class VM {
+  private static final int FRAMES_MAX = 1024;
+  private static final int STACK_MAX = FRAMES_MAX * 256;
+
+  private final Object[] stack = new Object[STACK_MAX];
+  private int sp = 0;
+
+  // call frames: the running closure, its instruction pointer and the stack slot of its slot 0
+  private final ObjClosure[] frameClosures = new ObjClosure[FRAMES_MAX];
+  private final int[] frameIps = new int[FRAMES_MAX];
+  private final int[] frameBases = new int[FRAMES_MAX];
+  private int frameCount = 0;
+
+  private final Map<String, Object> globals = new HashMap<>();
+  private ObjUpvalue openUpvalues = null; // sorted by stack slot, highest first
+
+  public VM() {
+    globals.put("clock", new ObjNative(0, (args, offset) -> (double) System.currentTimeMillis() / 1000.0));
+  }
+
+  public void interpret(ObjFunction script) {
+    ObjClosure closure = new ObjClosure(script);
+    stack[sp++] = closure;
+    callClosure(closure, 0);
+
+    try {
+      run();
+    } finally {
+      // after an error the stack is left in an undefined state, start over for the next script
+      sp = 0;
+      frameCount = 0;
+      openUpvalues = null;
+    }
+  }
+
+  private void run() {
+    final Object[] stack = this.stack;
+    ObjClosure closure = frameClosures[frameCount - 1];
+    byte[] code = closure.function.chunk.code;
+    Object[] constants = closure.function.chunk.constants;
+    int ip = frameIps[frameCount - 1];
+    int base = frameBases[frameCount - 1];
+
+    for (;;) {
+      switch (code[ip++]) {
+        case OpCode.CONSTANT:
+          stack[sp++] = constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+          ip += 2;
+          break;
+        case OpCode.NIL:
+          stack[sp++] = null;
+          break;
+        case OpCode.TRUE:
+          stack[sp++] = Boolean.TRUE;
+          break;
+        case OpCode.FALSE:
+          stack[sp++] = Boolean.FALSE;
+          break;
+        case OpCode.POP:
+          sp--;
+          break;
+        case OpCode.GET_LOCAL:
+          stack[sp++] = stack[base + (code[ip++] & 0xff)];
+          break;
+        case OpCode.SET_LOCAL:
+          stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+          break;
+        case OpCode.GET_GLOBAL: {
+          String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+          ip += 2;
+          Object value = globals.get(name);
+          if (value == null && !globals.containsKey(name)) {
+            throw error(ip, String.format("Tried to access undefined variable %s", name));
+          }
+          stack[sp++] = value;
+          break;
+        }
+        case OpCode.DEFINE_GLOBAL: {
+          String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+          ip += 2;
+          globals.put(name, stack[--sp]);
+          break;
+        }
+        case OpCode.SET_GLOBAL: {
+          String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+          ip += 2;
+          if (!globals.containsKey(name)) {
+            throw error(ip, String.format("Cannot assign to variable %s. Variable does not exist", name));
+          }
+          globals.put(name, stack[sp - 1]);
+          break;
+        }
+        case OpCode.GET_UPVALUE: {
+          ObjUpvalue upvalue = closure.upvalues[code[ip++] & 0xff];
+          stack[sp++] = upvalue.slot >= 0 ? stack[upvalue.slot] : upvalue.closed;
+          break;
+        }
+        case OpCode.SET_UPVALUE: {
+          ObjUpvalue upvalue = closure.upvalues[code[ip++] & 0xff];
+          if (upvalue.slot >= 0) {
+            stack[upvalue.slot] = stack[sp - 1];
+          } else {
+            upvalue.closed = stack[sp - 1];
+          }
+          break;
+        }
+        case OpCode.GET_PROPERTY: {
+          String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+          ip += 2;
+          Object obj = stack[sp - 1];
+          if (!(obj instanceof ObjInstance)) {
+            throw error(ip, String.format("Tried to access %s on %s but %s it not an instance object", name, obj, obj));
+          }
+
+          ObjInstance instance = (ObjInstance) obj;
+          Object value = instance.fields.get(name);
+          if (value != null || instance.fields.containsKey(name)) {
+            stack[sp - 1] = value;
+            break;
+          }
+
+          ObjClosure method = instance.cls.methods.get(name);
+          if (method == null) {
+            throw error(ip, String.format("Unknown property '%s' on %s", name, instance));
+          }
+          stack[sp - 1] = new ObjBoundMethod(instance, method);
+          break;
+        }
+        case OpCode.SET_PROPERTY: {
+          String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+          ip += 2;
+          Object obj = stack[sp - 2];
+          if (!(obj instanceof ObjInstance)) {
+            throw error(ip, String.format("Cannot set fields on variables (%s) that are not instances", name));
+          }
+
+          Object value = stack[--sp];
+          ((ObjInstance) obj).fields.put(name, value);
+          stack[sp - 1] = value;
+          break;
+        }
+        case OpCode.EQUAL: {
+          Object b = stack[--sp];
+          stack[sp - 1] = isEqual(stack[sp - 1], b);
+          break;
+        }
+        case OpCode.NOT_EQUAL: {
+          Object b = stack[--sp];
+          stack[sp - 1] = !isEqual(stack[sp - 1], b);
+          break;
+        }
+        case OpCode.GREATER: {
+          Object b = stack[--sp];
+          Object a = stack[sp - 1];
+          checkNumberOperands(ip, a, b);
+          stack[sp - 1] = (double) a > (double) b;
+          break;
+        }
+        case OpCode.GREATER_EQUAL: {
+          Object b = stack[--sp];
+          Object a = stack[sp - 1];
+          checkNumberOperands(ip, a, b);
+          stack[sp - 1] = (double) a >= (double) b;
+          break;
+        }
+        case OpCode.LESS: {
+          Object b = stack[--sp];
+          Object a = stack[sp - 1];
+          checkNumberOperands(ip, a, b);
+          stack[sp - 1] = (double) a < (double) b;
+          break;
+        }
+        case OpCode.LESS_EQUAL: {
+          Object b = stack[--sp];
+          Object a = stack[sp - 1];
+          checkNumberOperands(ip, a, b);
+          stack[sp - 1] = (double) a <= (double) b;
+          break;
+        }
+        case OpCode.ADD: {
+          Object b = stack[--sp];
+          Object a = stack[sp - 1];
+          if (a instanceof Double && b instanceof Double) {
+            stack[sp - 1] = (double) a + (double) b;
+          } else if (a instanceof String && b instanceof String) {
+            stack[sp - 1] = (String) a + (String) b;
+          } else {
+            throw error(ip,
+                String.format("Operands for '+' must be two numbers or two strings but were: %s and %s", a, b));
+          }
+          break;
+        }
+        case OpCode.SUBTRACT: {
+          Object b = stack[--sp];
+          Object a = stack[sp - 1];
+          checkNumberOperands(ip, a, b);
+          stack[sp - 1] = (double) a - (double) b;
+          break;
+        }
+        case OpCode.MULTIPLY: {
+          Object b = stack[--sp];
+          Object a = stack[sp - 1];
+          checkNumberOperands(ip, a, b);
+          stack[sp - 1] = (double) a * (double) b;
+          break;
+        }
+        case OpCode.DIVIDE: {
+          Object b = stack[--sp];
+          Object a = stack[sp - 1];
+          checkNumberOperands(ip, a, b);
+          stack[sp - 1] = (double) a / (double) b;
+          break;
+        }
+        case OpCode.NOT:
+          stack[sp - 1] = !isTruthy(stack[sp - 1]);
+          break;
+        case OpCode.NEGATE: {
+          Object a = stack[sp - 1];
+          if (!(a instanceof Double)) {
+            throw error(ip, String.format("Operand must be a number but was %s", a));
+          }
+          stack[sp - 1] = -(double) a;
+          break;
+        }
+        case OpCode.PRINT:
+          System.out.println(stack[--sp]);
+          break;
+        case OpCode.JUMP:
+          ip += 2 + (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+          break;
+        case OpCode.JUMP_IF_FALSE:
+          if (isTruthy(stack[sp - 1])) {
+            ip += 2;
+          } else {
+            ip += 2 + (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+          }
+          break;
+        case OpCode.LOOP:
+          ip += 2 - (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+          break;
+        case OpCode.CALL: {
+          int argCount = code[ip++] & 0xff;
+          frameIps[frameCount - 1] = ip;
+          callValue(stack[sp - 1 - argCount], argCount);
+
+          closure = frameClosures[frameCount - 1];
+          code = closure.function.chunk.code;
+          constants = closure.function.chunk.constants;
+          ip = frameIps[frameCount - 1];
+          base = frameBases[frameCount - 1];
+          break;
+        }
+        case OpCode.TAIL_CALL: {
+          int argCount = code[ip++] & 0xff;
+          frameIps[frameCount - 1] = ip;
+          Object callee = stack[sp - 1 - argCount];
+          if (takesOverFrame(callee, argCount)) {
+            // like a RETURN of this frame, but the callee and its arguments take the place of the result
+            closeUpvalues(base);
+            System.arraycopy(stack, sp - 1 - argCount, stack, base, argCount + 1);
+            sp = base + argCount + 1;
+            frameCount--;
+          }
+          callValue(callee, argCount);
+
+          closure = frameClosures[frameCount - 1];
+          code = closure.function.chunk.code;
+          constants = closure.function.chunk.constants;
+          ip = frameIps[frameCount - 1];
+          base = frameBases[frameCount - 1];
+          break;
+        }
+        case OpCode.CLOSURE: {
+          ObjFunction function = (ObjFunction) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+          ip += 2;
+          ObjClosure newClosure = new ObjClosure(function);
+          for (int i = 0; i < function.upvalueCount; i++) {
+            boolean isLocal = code[ip++] == 1;
+            int index = code[ip++] & 0xff;
+            newClosure.upvalues[i] = isLocal ? captureUpvalue(base + index) : closure.upvalues[index];
+          }
+          stack[sp++] = newClosure;
+          break;
+        }
+        case OpCode.CLOSE_UPVALUE:
+          closeUpvalues(sp - 1);
+          sp--;
+          break;
+        case OpCode.RETURN: {
+          Object result = stack[--sp];
+          closeUpvalues(base);
+          frameCount--;
+          if (frameCount == 0) {
+            sp = 0;
+            return;
+          }
+
+          // drop the callee and its arguments and leave the result in their place
+          sp = base;
+          stack[sp++] = result;
+
+          closure = frameClosures[frameCount - 1];
+          code = closure.function.chunk.code;
+          constants = closure.function.chunk.constants;
+          ip = frameIps[frameCount - 1];
+          base = frameBases[frameCount - 1];
+          break;
+        }
+        case OpCode.CLASS: {
+          String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+          ip += 2;
+          stack[sp++] = new ObjClass(name);
+          break;
+        }
+        case OpCode.METHOD: {
+          String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+          ip += 2;
+          ObjClass cls = (ObjClass) stack[sp - 2];
+          cls.methods.put(name, (ObjClosure) stack[--sp]);
+          break;
+        }
+        default:
+          throw error(ip, String.format("Unknown opcode %d", code[ip - 1]));
+      }
+    }
+  }
+
+  private void callValue(Object callee, int argCount) {
+    if (callee instanceof ObjClosure) {
+      callClosure((ObjClosure) callee, argCount);
+    } else if (callee instanceof ObjBoundMethod) {
+      ObjBoundMethod bound = (ObjBoundMethod) callee;
+      stack[sp - 1 - argCount] = bound.receiver; // becomes 'this' in slot 0
+      callClosure(bound.method, argCount);
+    } else if (callee instanceof ObjClass) {
+      ObjClass cls = (ObjClass) callee;
+      stack[sp - 1 - argCount] = new ObjInstance(cls);
+      ObjClosure init = cls.methods.get("init");
+      if (init != null) {
+        callClosure(init, argCount);
+      } else if (argCount != 0) {
+        throw error(String.format("Wrong number of arguments: %s instead of %s", argCount, 0));
+      }
+    } else if (callee instanceof ObjNative) {
+      ObjNative nativeFn = (ObjNative) callee;
+      checkArity(argCount, nativeFn.arity);
+      Object result = nativeFn.fn.call(stack, sp - argCount);
+      sp -= argCount + 1;
+      stack[sp++] = result;
+    } else {
+      throw error(String.format("Can only call functions and classes, not '%s'", callee));
+    }
+  }
+
+  /*
+   * Only calls of closures that can't fail replace the frame of the caller, anything else is called as usual
+   * and reports its errors in the caller's frame
+   */
+  private static boolean takesOverFrame(Object callee, int argCount) {
+    if (callee instanceof ObjBoundMethod)
+      return ((ObjBoundMethod) callee).method.function.arity == argCount;
+    return callee instanceof ObjClosure && ((ObjClosure) callee).function.arity == argCount;
+  }
+
+  private void callClosure(ObjClosure closure, int argCount) {
+    checkArity(argCount, closure.function.arity);
+    if (frameCount == FRAMES_MAX) {
+      throw error("Stack overflow");
+    }
+
+    frameClosures[frameCount] = closure;
+    frameIps[frameCount] = 0;
+    frameBases[frameCount] = sp - 1 - argCount;
+    frameCount++;
+  }
+
+  private void checkArity(int argCount, int arity) {
+    if (argCount != arity) {
+      throw error(String.format("Wrong number of arguments: %s instead of %s", argCount, arity));
+    }
+  }
+
+  private ObjUpvalue captureUpvalue(int slot) {
+    ObjUpvalue prev = null;
+    ObjUpvalue upvalue = openUpvalues;
+    while (upvalue != null && upvalue.slot > slot) {
+      prev = upvalue;
+      upvalue = upvalue.next;
+    }
+
+    if (upvalue != null && upvalue.slot == slot)
+      return upvalue;
+
+    ObjUpvalue created = new ObjUpvalue(slot, upvalue);
+    if (prev == null) {
+      openUpvalues = created;
+    } else {
+      prev.next = created;
+    }
+    return created;
+  }
+
+  // move every captured variable at or above the given slot off the stack
+  private void closeUpvalues(int lastSlot) {
+    while (openUpvalues != null && openUpvalues.slot >= lastSlot) {
+      ObjUpvalue upvalue = openUpvalues;
+      upvalue.closed = stack[upvalue.slot];
+      upvalue.slot = -1;
+      openUpvalues = upvalue.next;
+    }
+  }
+
+  private boolean isTruthy(Object obj) {
+    if (obj == null)
+      return false;
+    if (obj instanceof Boolean)
+      return (boolean) obj;
+    return true;
+  }
+
+  private boolean isEqual(Object a, Object b) {
+    if (a == null && b == null)
+      return true;
+    if (a == null)
+      return false;
+
+    return a.equals(b);
+  }
+
+  private void checkNumberOperands(int ip, Object a, Object b) {
+    if (a instanceof Double && b instanceof Double)
+      return;
+
+    throw error(ip, String.format("Operands must be numbers but were %s and %s", a, b));
+  }
+
+  private VMError error(int ip, String message) {
+    frameIps[frameCount - 1] = ip;
+    return error(message);
+  }
+
+  // reports the error at the last executed instruction of the innermost frame
+  private VMError error(String message) {
+    ObjFunction function = frameClosures[frameCount - 1].function;
+    return new VMError(function.chunk.lines[frameIps[frameCount - 1] - 1], message);
+  }
+}
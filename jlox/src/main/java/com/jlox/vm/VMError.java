@@ -0,0 +1,15 @@
+package com.jlox.vm;
+
+/*
+ * Is thrown by the VM when a runtime error occurs, carrying the source line of the failing instruction
+ */
+public class VMError extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  public final int line;
+
+  VMError(int line, String message) {
+    super(message);
+    this.line = line;
+  }
+}